@@ -0,0 +1,67 @@
+/*
+ * Copyright (c) 2025 coolcostupit
+ * Licensed under AGPL-3.0
+ * You may not remove this notice or claim this work as your own.
+ */
+
+package coolcostupit.openjs.benchmarks;
+
+import com.oracle.truffle.js.scriptengine.GraalJSScriptEngine;
+import coolcostupit.openjs.modules.ScriptEngine;
+import coolcostupit.openjs.modules.ScriptFunction;
+import org.graalvm.polyglot.Value;
+import org.openjdk.jmh.annotations.*;
+
+import javax.script.Invocable;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares calling an event handler by name through JSR-223 with calling a function that has been resolved once.
+ * Run with: mvn -P benchmarks test-compile exec:exec
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class HandlerInvocationBenchmark {
+    private GraalJSScriptEngine engine;
+    private Object handler;
+    private ScriptFunction handleEvent;
+    private final Object event = new Object();
+
+    @Setup
+    public void setup() throws Exception {
+        engine = (GraalJSScriptEngine) ScriptEngine.getEngine();
+        engine.eval("""
+                var handler = {
+                    calls: 0,
+                    handleEvent: function(event) {
+                        this.calls++;
+                        return event;
+                    }
+                };
+                """);
+
+        // What the old registration received as "Object handler"
+        handler = engine.get("handler");
+        Value handlerValue = engine.getPolyglotContext().getBindings("js").getMember("handler");
+        handleEvent = ScriptFunction.of(handlerValue, "handleEvent");
+    }
+
+    @TearDown
+    public void tearDown() {
+        engine.close();
+    }
+
+    @Benchmark
+    public Object invokeMethodByName() throws Exception {
+        return ((Invocable) engine).invokeMethod(handler, "handleEvent", event);
+    }
+
+    @Benchmark
+    public Object resolvedFunction() {
+        return handleEvent.call(event);
+    }
+}
@@ -0,0 +1,92 @@
+/*
+ * Copyright (c) 2025 coolcostupit
+ * Licensed under AGPL-3.0
+ * You may not remove this notice or claim this work as your own.
+ */
+
+package coolcostupit.openjs.benchmarks;
+
+import coolcostupit.openjs.foliascheduler.FoliaCompatibility;
+import coolcostupit.openjs.modules.ServerScheduler;
+import coolcostupit.openjs.modules.TaskRegistry;
+import io.papermc.paper.threadedregions.scheduler.AsyncScheduler;
+import io.papermc.paper.threadedregions.scheduler.GlobalRegionScheduler;
+import io.papermc.paper.threadedregions.scheduler.ScheduledTask;
+import org.bukkit.Server;
+import org.bukkit.plugin.Plugin;
+import org.openjdk.jmh.annotations.*;
+
+import java.lang.reflect.Proxy;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+/**
+ * Tasks scheduled per second on Folia, with a new FoliaCompatibility per task (how FoliaSupport used to schedule)
+ * and with the {@link ServerScheduler} that is created once when the plugin is enabled.
+ * The Folia schedulers are stubs that run the task right away, so only the cost of scheduling is measured.
+ * Run with: mvn -P benchmarks test-compile exec:exec
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class SchedulerBenchmark {
+    private Plugin plugin;
+    private ServerScheduler scheduler;
+    private final Runnable function = () -> {};
+
+    @Setup
+    @SuppressWarnings("unchecked")
+    public void setup() {
+        ScheduledTask scheduledTask = stub(ScheduledTask.class, null);
+        Object foliaScheduler = Proxy.newProxyInstance(getClass().getClassLoader(),
+                new Class<?>[]{AsyncScheduler.class, GlobalRegionScheduler.class}, (proxy, method, args) -> {
+                    if (args != null) {
+                        for (Object arg : args) {
+                            if (arg instanceof Consumer<?> consumer) {
+                                ((Consumer<ScheduledTask>) consumer).accept(scheduledTask);
+                            }
+                        }
+                    }
+                    return method.getReturnType() == ScheduledTask.class ? scheduledTask : null;
+                });
+        Server server = stub(Server.class, foliaScheduler);
+        plugin = stub(Plugin.class, server);
+        scheduler = ServerScheduler.create(plugin, true);
+    }
+
+    @Benchmark
+    public int newCompatibilityPerTask() {
+        TaskRegistry.Task task = TaskRegistry.reserve(TaskRegistry.TaskType.FOLIA);
+        task.attach(new FoliaCompatibility(plugin).getServerImplementation().async().runDelayed(task.completing(function), 1));
+        return task.getId();
+    }
+
+    @Benchmark
+    public int cachedScheduler() {
+        return scheduler.runLater(function, 1);
+    }
+
+    // Answers every call that can return the result with the result, everything else with an empty value
+    @SuppressWarnings("unchecked")
+    private static <T> T stub(Class<T> type, Object result) {
+        return (T) Proxy.newProxyInstance(type.getClassLoader(), new Class<?>[]{type}, (proxy, method, args) -> {
+            Class<?> returnType = method.getReturnType();
+            if (result != null && returnType.isInstance(result)) {
+                return result;
+            }
+            if (returnType == boolean.class) {
+                return false;
+            }
+            if (returnType == long.class) {
+                return 0L;
+            }
+            if (returnType == int.class) {
+                return 0;
+            }
+            return null;
+        });
+    }
+}
@@ -0,0 +1,148 @@
+/*
+ * Copyright (c) 2025 coolcostupit
+ * Licensed under AGPL-3.0
+ * You may not remove this notice or claim this work as your own.
+ */
+
+package coolcostupit.openjs.benchmarks;
+
+import coolcostupit.openjs.modules.ScriptExecutors;
+import coolcostupit.openjs.modules.ScriptMailbox;
+import coolcostupit.openjs.modules.sharedClass;
+import coolcostupit.openjs.utility.configurationUtil;
+import org.openjdk.jmh.annotations.*;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.concurrent.*;
+import java.util.function.UnaryOperator;
+
+/**
+ * Runs 1,000 concurrent loops of 10 waits of 5ms, spread over 100 scripts, like spawned tasks that poll something.
+ * Every loop is posted into the {@link ScriptMailbox} of its script, the way task.spawn does it.
+ * <ul>
+ *     <li>"wait" sleeps inside the posted task like task.wait, the script stays busy for the whole wait</li>
+ *     <li>"sleep" posts the rest of the loop again once a timer fired like await task.sleep, which leaves the script free meanwhile</li>
+ * </ul>
+ * The timer is a scheduled executor instead of the tick driven timer wheel, so a wait lasts 5ms instead of whole ticks.
+ * Compares the cached thread pool, the bounded task pool and virtual threads (needs Java 21+).
+ * The score is the time until every loop has finished. "eventDelayMillis" is the longest time an event posted after the
+ * loops waited for its script, "platformThreads" the peak of OS threads. JMH sums both over the iterations, so divide them by the count.
+ * Run with: mvn -P benchmarks test-compile exec:exec
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2)
+@Measurement(iterations = 5)
+@Fork(1)
+@State(Scope.Benchmark)
+public class WaitLoopBenchmark {
+    private static final int SCRIPTS = 100;
+    private static final int LOOPS_PER_SCRIPT = 10;
+    private static final int WAITS_PER_LOOP = 10;
+    private static final long WAIT_MILLIS = 5;
+
+    @Param({"cached", "bounded", "virtual"})
+    public String executor;
+
+    @Param({"wait", "sleep"})
+    public String waiting;
+
+    private final ScriptMailbox[] mailboxes = new ScriptMailbox[SCRIPTS];
+    private ScheduledExecutorService timer;
+    private final ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+
+    @State(Scope.Thread)
+    @AuxCounters(AuxCounters.Type.EVENTS)
+    public static class Counters {
+        public long eventDelayMillis;
+        public long platformThreads;
+
+        @Setup(Level.Iteration)
+        public void reset() {
+            eventDelayMillis = 0;
+            platformThreads = 0;
+        }
+    }
+
+    @Setup
+    public void setup() {
+        switch (executor) {
+            case "cached":
+                sharedClass.TaskThreadPool = Executors.newCachedThreadPool();
+                break;
+            case "bounded":
+                // The defaults of TaskThreadPoolSize and TaskThreadPoolQueue
+                sharedClass.TaskThreadPool = new ThreadPoolExecutor(64, 64, 60L, TimeUnit.SECONDS, new LinkedBlockingQueue<>(10000));
+                break;
+            case "virtual":
+                sharedClass.TaskThreadPool = ScriptExecutors.newVirtualThreadExecutor("Benchmark-", UnaryOperator.identity());
+                if (sharedClass.TaskThreadPool == null) {
+                    throw new IllegalStateException("Virtual threads need Java 21 or newer");
+                }
+                break;
+            default:
+                throw new IllegalArgumentException(executor);
+        }
+
+        // The mailboxes only read their limits from the config buffer, which falls back to the defaults
+        sharedClass.configUtil = new configurationUtil(null);
+        for (int i = 0; i < SCRIPTS; i++) {
+            mailboxes[i] = ScriptMailbox.open("Benchmark-" + i);
+        }
+        timer = Executors.newSingleThreadScheduledExecutor();
+    }
+
+    @TearDown
+    public void tearDown() {
+        for (int i = 0; i < SCRIPTS; i++) {
+            ScriptMailbox.close("Benchmark-" + i);
+        }
+        timer.shutdownNow();
+        sharedClass.TaskThreadPool.shutdownNow();
+    }
+
+    @Benchmark
+    public void waitLoops(Counters counters) throws Exception {
+        threads.resetPeakThreadCount();
+        CountDownLatch finished = new CountDownLatch(SCRIPTS * LOOPS_PER_SCRIPT);
+        for (ScriptMailbox mailbox : mailboxes) {
+            for (int i = 0; i < LOOPS_PER_SCRIPT; i++) {
+                if (waiting.equals("wait")) {
+                    mailbox.post("task.spawn", () -> blockingLoop(finished));
+                } else {
+                    mailbox.post("task.spawn", () -> sleepingLoop(mailbox, WAITS_PER_LOOP, finished));
+                }
+            }
+        }
+
+        CompletableFuture<Long> eventDelay = new CompletableFuture<>();
+        long posted = System.nanoTime();
+        mailboxes[0].post("event", () -> eventDelay.complete(System.nanoTime() - posted));
+
+        finished.await();
+        counters.eventDelayMillis = Math.max(counters.eventDelayMillis, TimeUnit.NANOSECONDS.toMillis(eventDelay.get()));
+        counters.platformThreads = Math.max(counters.platformThreads, threads.getPeakThreadCount());
+    }
+
+    private static void blockingLoop(CountDownLatch finished) {
+        try {
+            for (int wait = 0; wait < WAITS_PER_LOOP; wait++) {
+                Thread.sleep(WAIT_MILLIS);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            finished.countDown();
+        }
+    }
+
+    private void sleepingLoop(ScriptMailbox mailbox, int waitsLeft, CountDownLatch finished) {
+        if (waitsLeft == 0) {
+            finished.countDown();
+            return;
+        }
+        // Resolving the promise posts the rest of the loop into the mailbox again
+        timer.schedule(() -> mailbox.post("task.sleep", () -> sleepingLoop(mailbox, waitsLeft - 1, finished)), WAIT_MILLIS, TimeUnit.MILLISECONDS);
+    }
+}
@@ -10,12 +10,27 @@ import coolcostupit.openjs.logging.pluginLogger;
 import coolcostupit.openjs.modules.scriptWrapper;
 import coolcostupit.openjs.modules.sharedClass;
 import coolcostupit.openjs.pluginbridges.PlaceHolderApiJS;
+import org.graalvm.polyglot.Source;
 
 import javax.script.ScriptEngine;
 import java.util.logging.Level;
 
 public class PlaceholderAPI {
     public static PlaceHolderApiJS placeholderApiJS;
+    private static final Source BRIDGE_SOURCE = Source.newBuilder("js", """
+                const PlaceholderAPI = {
+                    registerPlaceholder: function(placeholderPrefix, handler) {
+                        PlaceholderAPI_.registerPlaceholder(placeholderPrefix, handler, currentScriptName, scriptEngine);
+                    },
+                    unregisterPlaceholder: function(placeholderPrefix) {
+                        PlaceholderAPI_.unregisterPlaceholder(placeholderPrefix, currentScriptName);
+                    },
+                    parseString: function(player, text) {
+                        return PlaceholderAPI_.parseString(player, text);
+                    }
+                }
+                Object.freeze(PlaceholderAPI);
+            """, "openjs-placeholderapi.js").cached(true).buildLiteral();
 
     public void Load(String ScriptName, ScriptEngine Engine) {
         try {
@@ -30,20 +45,7 @@ public class PlaceholderAPI {
             }
 
             Engine.put("PlaceholderAPI_", placeholderApiJS);
-            Engine.eval("""
-                const PlaceholderAPI = {
-                    registerPlaceholder: function(placeholderPrefix, handler) {
-                        PlaceholderAPI_.registerPlaceholder(placeholderPrefix, handler, currentScriptName, scriptEngine);
-                    },
-                    unregisterPlaceholder: function(placeholderPrefix) {
-                        PlaceholderAPI_.unregisterPlaceholder(placeholderPrefix, currentScriptName);
-                    },
-                    parseString: function(player, text) {
-                        return PlaceholderAPI_.parseString(player, text);
-                    }
-                }
-                Object.freeze(PlaceholderAPI);
-            """);
+            coolcostupit.openjs.modules.ScriptEngine.eval(Engine, BRIDGE_SOURCE);
 
             scriptWrapper.addToCleanupMap(ScriptName, () -> {
                 placeholderApiJS.unregisterPlaceholders(ScriptName);
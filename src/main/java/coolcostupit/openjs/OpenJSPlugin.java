@@ -73,7 +73,11 @@ public class OpenJSPlugin extends JavaPlugin implements TabExecutor, TabComplete
             new pApiExtension().register();
         }
 
+        FoliaSupport.init(this);
+        TickDriver.start(this);
         this.scriptWrapper = new scriptWrapper(this, configUtil);
+        ScriptWatchdog.start(this.scriptWrapper::unloadScript);
+        TimerWheel.start();
         this.updateChecker = new UpdateChecker(this, this.pluginLogger, this.configUtil);
 
         JavascriptHelper.updateSource();
@@ -82,6 +86,9 @@ public class OpenJSPlugin extends JavaPlugin implements TabExecutor, TabComplete
         scriptWrapper.checkDisabledScripts();
         saveDefaultConfig();
         configUtil.loadBufferFromConfig();
+        ScriptExecutors.start();
+        MainThreadQueue.start();
+        DiskStorageApi.startWriteBehind();
         scriptWrapper.loadScripts();
 
         // Default config values
@@ -95,6 +102,22 @@ public class OpenJSPlugin extends JavaPlugin implements TabExecutor, TabComplete
         configUtil.getConfigFromBuffer("UpdateNotifications", true);
         configUtil.getConfigFromBuffer("AllowFeatureFlags", true);
         configUtil.getConfigFromBuffer("BroadcastToOps", true);
+        configUtil.getConfigFromBuffer("LogScriptTimings", false);
+        configUtil.getConfigFromBuffer("ScriptLockTimeout", 50);
+        configUtil.getConfigFromBuffer("ScriptTickBudget", 10);
+        configUtil.getConfigFromBuffer("ScriptWatchdogTicks", 20);
+        configUtil.getConfigFromBuffer("ScriptWatchdogAction", "LOG");
+        configUtil.getConfigFromBuffer("ScriptWatchdogCooldown", 600);
+        configUtil.getConfigFromBuffer("UseVirtualThreads", true);
+        configUtil.getConfigFromBuffer("TaskThreadPoolSize", 64);
+        configUtil.getConfigFromBuffer("TaskThreadPoolQueue", 10000);
+        configUtil.getConfigFromBuffer("LoaderThreadPoolSize", 4);
+        configUtil.getConfigFromBuffer("ScriptQueueLimit", 1000);
+        configUtil.getConfigFromBuffer("ScriptQueueRejection", "REJECT");
+        configUtil.getConfigFromBuffer("MainQueueBudget", 5);
+        configUtil.getConfigFromBuffer("StorageFlushInterval", 100);
+        configUtil.getConfigFromBuffer("StorageFsync", true);
+        configUtil.getConfigFromBuffer("StorageCacheSize", 128);
         configUtil.saveBufferToConfig();
 
         if (configUtil.getConfigFromBuffer("AllowBstats", true)) {
@@ -131,11 +154,14 @@ public class OpenJSPlugin extends JavaPlugin implements TabExecutor, TabComplete
         scriptWrapper.unregisterAllListeners();
         pluginLogger.log(Level.INFO, "Un-registering all tasks...", coolcostupit.openjs.logging.pluginLogger.LIGHT_BLUE);
         scriptWrapper.unregisterAllTasks();
+        ScriptWatchdog.stop();
+        TimerWheel.stop();
+        MainThreadQueue.stop();
+        TickDriver.stop();
         pluginLogger.log(Level.INFO, "Un-registering all script commands...", coolcostupit.openjs.logging.pluginLogger.LIGHT_BLUE);
         scriptWrapper.unregisterAllScriptCommands();
         pluginLogger.log(Level.INFO, "Un-loading all scripts...", coolcostupit.openjs.logging.pluginLogger.LIGHT_BLUE);
-        sharedClass.TaskThreadPool.shutdown();
-        scriptWrapper.executorService.shutdown();
+        ScriptExecutors.shutdown();
         scriptWrapper.unloadAllScripts();
         sharedClass.LibImporterApi.shutdown();
         pluginLogger.log(Level.INFO, "Storing memory variables...", coolcostupit.openjs.logging.pluginLogger.LIGHT_BLUE);
@@ -206,6 +232,7 @@ public class OpenJSPlugin extends JavaPlugin implements TabExecutor, TabComplete
         sender.sendMessage(chatColors.LIGHT_PURPLE + " - /" + label + " enable <script>       " + chatColors.GRAY + "» Enables a disabled script");
         sender.sendMessage(chatColors.LIGHT_PURPLE + " - /" + label + " disable <script>      " + chatColors.GRAY + "» Disables an enabled script");
         sender.sendMessage(chatColors.LIGHT_PURPLE + " - /" + label + " list <type>           " + chatColors.GRAY + "» Lists scripts by type: enabled, disabled, or not_loaded");
+        sender.sendMessage(chatColors.LIGHT_PURPLE + " - /" + label + " stats                 " + chatColors.GRAY + "» Shows runtime statistics of the script engine");
     }
 
     @Override
@@ -230,6 +257,9 @@ public class OpenJSPlugin extends JavaPlugin implements TabExecutor, TabComplete
             list_disabled_scripts(sender);
             list_unloaded_scripts(sender);
             return true;
+        } else if ("stats".equalsIgnoreCase(args[0])) {
+            StatsReporter.report(sender);
+            return true;
         }
 
         String subCommand = args[0].toLowerCase();
@@ -369,6 +399,9 @@ public class OpenJSPlugin extends JavaPlugin implements TabExecutor, TabComplete
             if ("list".startsWith(args[0].toLowerCase())) {
                 completions.add("list");
             }
+            if ("stats".startsWith(args[0].toLowerCase())) {
+                completions.add("stats");
+            }
         } else if (args.length == 2) {
             if (args[0].equalsIgnoreCase("enable")) {
                 for (String script : scriptWrapper.disabledScripts) {
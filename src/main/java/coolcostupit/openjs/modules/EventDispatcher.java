@@ -0,0 +1,157 @@
+/*
+ * Copyright (c) 2025 coolcostupit
+ * Licensed under AGPL-3.0
+ * You may not remove this notice or claim this work as your own.
+ */
+
+package coolcostupit.openjs.modules;
+
+import org.bukkit.Bukkit;
+import org.bukkit.event.Event;
+import org.bukkit.event.EventPriority;
+import org.bukkit.event.HandlerList;
+import org.bukkit.event.Listener;
+import org.bukkit.plugin.EventExecutor;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Fans events out to the handlers of all scripts.
+ * <p>
+ * Every combination of event class, priority and ignoreCancelled is registered with Bukkit only once,
+ * the script handlers are kept in a copy-on-write array. Registering or unregistering a script handler
+ * therefore never touches (and re-bakes) the HandlerList of the event, which used to happen on every
+ * registerEvent call and for every listener of a script on reload.
+ * <p>
+ * Cancelled events are filtered by Bukkit for dispatchers that ignore them, so they never reach a script.
+ */
+public class EventDispatcher implements Listener, EventExecutor {
+    private static final Map<DispatchKey, EventDispatcher> dispatchers = new ConcurrentHashMap<>();
+    private static final Map<String, Class<? extends Event>> eventClasses = new ConcurrentHashMap<>();
+    private static final EventListenerWrapper[] NO_HANDLERS = new EventListenerWrapper[0];
+
+    private final DispatchKey key;
+    private final LongAdder dispatched = new LongAdder();
+    private final LongAdder filtered = new LongAdder();
+    private volatile EventListenerWrapper[] handlers = NO_HANDLERS;
+
+    private record DispatchKey(Class<? extends Event> eventClass, EventPriority priority, boolean ignoreCancelled) {
+    }
+
+    static {
+        StatsReporter.register("Event dispatchers", () -> {
+            List<String> lines = new ArrayList<>();
+            for (EventDispatcher dispatcher : dispatchers.values()) {
+                long dropped = 0;
+                long merged = 0;
+                for (EventListenerWrapper handler : dispatcher.handlers) {
+                    EventThrottle throttle = handler.getThrottle();
+                    if (throttle != null) {
+                        dropped += throttle.getDropped();
+                        merged += throttle.getMerged();
+                    }
+                }
+                lines.add(dispatcher.key.eventClass().getSimpleName() + " (" + dispatcher.key.priority()
+                        + (dispatcher.key.ignoreCancelled() ? ", ignoreCancelled" : "") + "): handlers="
+                        + dispatcher.handlers.length + " dispatched=" + dispatcher.dispatched.sum()
+                        + " filtered=" + dispatcher.filtered.sum() + " dropped=" + dropped + " merged=" + merged);
+            }
+            if (lines.isEmpty()) {
+                lines.add("No script has registered an event yet.");
+            }
+            return lines;
+        });
+    }
+
+    private EventDispatcher(DispatchKey key) {
+        this.key = key;
+    }
+
+    /**
+     * Resolves an event class by its name, the result is cached.
+     *
+     * @throws ClassNotFoundException If the class does not exist
+     * @throws IllegalArgumentException If the class is not an event
+     */
+    public static Class<? extends Event> resolveEventClass(String eventClassName) throws ClassNotFoundException {
+        Class<? extends Event> cached = eventClasses.get(eventClassName);
+        if (cached != null) {
+            return cached;
+        }
+
+        Class<?> eventClass = Class.forName(eventClassName);
+        if (!Event.class.isAssignableFrom(eventClass)) {
+            throw new IllegalArgumentException("Class " + eventClassName + " is not an Event.");
+        }
+        Class<? extends Event> resolved = eventClass.asSubclass(Event.class);
+        eventClasses.put(eventClassName, resolved);
+        return resolved;
+    }
+
+    /**
+     * Returns the dispatcher for the given combination, it gets registered with Bukkit on first use.
+     */
+    public static EventDispatcher get(Class<? extends Event> eventClass, EventPriority priority, boolean ignoreCancelled) {
+        return dispatchers.computeIfAbsent(new DispatchKey(eventClass, priority, ignoreCancelled), key -> {
+            EventDispatcher dispatcher = new EventDispatcher(key);
+            Bukkit.getPluginManager().registerEvent(eventClass, dispatcher, priority, dispatcher, sharedClass.plugin, ignoreCancelled);
+            return dispatcher;
+        });
+    }
+
+    /**
+     * Unregisters every dispatcher from Bukkit, only used when the plugin shuts down.
+     */
+    public static void unregisterAll() {
+        for (EventDispatcher dispatcher : dispatchers.values()) {
+            HandlerList.unregisterAll(dispatcher);
+        }
+        dispatchers.clear();
+    }
+
+    public synchronized void addHandler(EventListenerWrapper handler) {
+        EventListenerWrapper[] current = handlers;
+        EventListenerWrapper[] updated = Arrays.copyOf(current, current.length + 1);
+        updated[current.length] = handler;
+        handlers = updated;
+    }
+
+    public synchronized void removeHandler(EventListenerWrapper handler) {
+        EventListenerWrapper[] current = handlers;
+        for (int i = 0; i < current.length; i++) {
+            if (current[i] == handler) {
+                EventListenerWrapper[] updated = new EventListenerWrapper[current.length - 1];
+                System.arraycopy(current, 0, updated, 0, i);
+                System.arraycopy(current, i + 1, updated, i, current.length - i - 1);
+                handlers = current.length == 1 ? NO_HANDLERS : updated;
+                return;
+            }
+        }
+    }
+
+    @Override
+    public void execute(Listener listener, Event event) {
+        // The HandlerList may belong to a super class of the event, so other event types can end up here
+        if (!key.eventClass().isInstance(event)) {
+            return;
+        }
+
+        EventListenerWrapper[] current = handlers;
+        if (current.length == 0) {
+            return;
+        }
+        dispatched.increment();
+        for (EventListenerWrapper handler : current) {
+            if (handler.accepts(event)) {
+                handler.dispatch(event);
+            } else {
+                filtered.increment();
+            }
+        }
+    }
+}
@@ -0,0 +1,238 @@
+/*
+ * Copyright (c) 2025 coolcostupit
+ * Licensed under AGPL-3.0
+ * You may not remove this notice or claim this work as your own.
+ */
+
+package coolcostupit.openjs.modules;
+
+import org.bukkit.Location;
+import org.bukkit.Material;
+import org.bukkit.World;
+import org.bukkit.entity.EntityType;
+import org.bukkit.entity.Player;
+import org.bukkit.event.Cancellable;
+import org.bukkit.event.Event;
+import org.bukkit.event.block.BlockEvent;
+import org.bukkit.event.entity.EntityEvent;
+import org.bukkit.event.player.PlayerEvent;
+import org.bukkit.event.player.PlayerInteractEvent;
+import org.bukkit.event.player.PlayerMoveEvent;
+import org.bukkit.event.world.WorldEvent;
+import org.graalvm.polyglot.Value;
+
+import javax.annotation.Nullable;
+import java.util.*;
+import java.util.function.Function;
+import java.util.function.Predicate;
+
+/**
+ * Compiles the declarative filter of registerEvent into a predicate chain, which is evaluated in Java
+ * before the script handler gets invoked. Events that do not match never enter the script context.
+ * <pre>
+ * filter: {
+ *     world: "world",                  // a name or an array of names
+ *     entityType: ["ZOMBIE", "HUSK"],  // entity events, players count as PLAYER
+ *     material: "DIAMOND_ORE",         // block events and the item of PlayerInteractEvent
+ *     blockChanged: true,              // PlayerMoveEvent, only moves into another block
+ *     permission: "myscript.use",      // the player of the event needs this permission
+ *     cancelled: false                 // cancellable events
+ * }
+ * </pre>
+ * How a value is read from the event is decided once per event class, an option that does not
+ * apply to the event fails the registration instead of silently never matching.
+ */
+public final class EventFilter {
+    private static final Set<String> OPTIONS = Set.of("world", "entityType", "material", "blockChanged", "permission", "cancelled");
+
+    private EventFilter() {
+    }
+
+    /**
+     * @param spec The filter object of the script, may be null or undefined
+     * @param eventClass The event the filter is used for
+     * @return The compiled filter or null if there is nothing to filter
+     * @throws IllegalArgumentException If the filter is invalid or not supported by the event
+     */
+    public static @Nullable Predicate<Event> compile(@Nullable Value spec, Class<? extends Event> eventClass) {
+        if (spec == null || spec.isNull()) {
+            return null;
+        }
+        if (!spec.hasMembers()) {
+            throw new IllegalArgumentException("The event filter has to be an object");
+        }
+        for (String key : spec.getMemberKeys()) {
+            if (!OPTIONS.contains(key)) {
+                throw new IllegalArgumentException("Unknown event filter option \"" + key + "\", use one of " + OPTIONS);
+            }
+        }
+
+        // Ordered from cheap to expensive, the chain stops at the first mismatch
+        List<Predicate<Event>> chain = new ArrayList<>();
+
+        Value cancelled = option(spec, "cancelled");
+        if (cancelled != null) {
+            require(Cancellable.class.isAssignableFrom(eventClass), "cancelled", eventClass);
+            boolean expected = asBoolean(cancelled, "cancelled");
+            chain.add(event -> ((Cancellable) event).isCancelled() == expected);
+        }
+
+        Value blockChanged = option(spec, "blockChanged");
+        if (blockChanged != null) {
+            require(PlayerMoveEvent.class.isAssignableFrom(eventClass), "blockChanged", eventClass);
+            boolean expected = asBoolean(blockChanged, "blockChanged");
+            chain.add(event -> hasChangedBlock((PlayerMoveEvent) event) == expected);
+        }
+
+        Value entityType = option(spec, "entityType");
+        if (entityType != null) {
+            Function<Event, EntityType> entityTypeOf = entityTypeExtractor(eventClass);
+            Set<EntityType> types = EnumSet.noneOf(EntityType.class);
+            for (String name : asStrings(entityType, "entityType")) {
+                try {
+                    types.add(EntityType.valueOf(name.toUpperCase(Locale.ROOT)));
+                } catch (IllegalArgumentException e) {
+                    throw new IllegalArgumentException("Unknown entity type " + name);
+                }
+            }
+            chain.add(event -> types.contains(entityTypeOf.apply(event)));
+        }
+
+        Value material = option(spec, "material");
+        if (material != null) {
+            Function<Event, Material> materialOf = materialExtractor(eventClass);
+            Set<Material> materials = EnumSet.noneOf(Material.class);
+            for (String name : asStrings(material, "material")) {
+                Material resolved = Material.matchMaterial(name);
+                if (resolved == null) {
+                    throw new IllegalArgumentException("Unknown material " + name);
+                }
+                materials.add(resolved);
+            }
+            chain.add(event -> materials.contains(materialOf.apply(event)));
+        }
+
+        Value world = option(spec, "world");
+        if (world != null) {
+            Function<Event, World> worldOf = worldExtractor(eventClass);
+            Set<String> worlds = Set.copyOf(asStrings(world, "world"));
+            chain.add(event -> {
+                World eventWorld = worldOf.apply(event);
+                return eventWorld != null && worlds.contains(eventWorld.getName());
+            });
+        }
+
+        Value permission = option(spec, "permission");
+        if (permission != null) {
+            Function<Event, Player> playerOf = playerExtractor(eventClass);
+            String node = permission.isString() ? permission.asString() : null;
+            if (node == null || node.isEmpty()) {
+                throw new IllegalArgumentException("The event filter option \"permission\" has to be a permission node");
+            }
+            chain.add(event -> {
+                Player player = playerOf.apply(event);
+                return player != null && player.hasPermission(node);
+            });
+        }
+
+        return chain.stream().reduce(Predicate::and).orElse(null);
+    }
+
+    private static boolean hasChangedBlock(PlayerMoveEvent event) {
+        Location from = event.getFrom();
+        Location to = event.getTo();
+        if (to == null) {
+            return false;
+        }
+        return from.getBlockX() != to.getBlockX()
+                || from.getBlockY() != to.getBlockY()
+                || from.getBlockZ() != to.getBlockZ()
+                || from.getWorld() != to.getWorld();
+    }
+
+    static Function<Event, World> worldExtractor(Class<? extends Event> eventClass) {
+        if (PlayerEvent.class.isAssignableFrom(eventClass)) {
+            return event -> ((PlayerEvent) event).getPlayer().getWorld();
+        }
+        if (EntityEvent.class.isAssignableFrom(eventClass)) {
+            return event -> ((EntityEvent) event).getEntity().getWorld();
+        }
+        if (BlockEvent.class.isAssignableFrom(eventClass)) {
+            return event -> ((BlockEvent) event).getBlock().getWorld();
+        }
+        if (WorldEvent.class.isAssignableFrom(eventClass)) {
+            return event -> ((WorldEvent) event).getWorld();
+        }
+        throw unsupported("world", eventClass);
+    }
+
+    private static Function<Event, EntityType> entityTypeExtractor(Class<? extends Event> eventClass) {
+        if (EntityEvent.class.isAssignableFrom(eventClass)) {
+            return event -> ((EntityEvent) event).getEntityType();
+        }
+        if (PlayerEvent.class.isAssignableFrom(eventClass)) {
+            return event -> EntityType.PLAYER;
+        }
+        throw unsupported("entityType", eventClass);
+    }
+
+    private static Function<Event, Material> materialExtractor(Class<? extends Event> eventClass) {
+        if (BlockEvent.class.isAssignableFrom(eventClass)) {
+            return event -> ((BlockEvent) event).getBlock().getType();
+        }
+        if (PlayerInteractEvent.class.isAssignableFrom(eventClass)) {
+            return event -> ((PlayerInteractEvent) event).getMaterial();
+        }
+        throw unsupported("material", eventClass);
+    }
+
+    static Function<Event, Player> playerExtractor(Class<? extends Event> eventClass) {
+        if (PlayerEvent.class.isAssignableFrom(eventClass)) {
+            return event -> ((PlayerEvent) event).getPlayer();
+        }
+        if (EntityEvent.class.isAssignableFrom(eventClass)) {
+            return event -> ((EntityEvent) event).getEntity() instanceof Player player ? player : null;
+        }
+        throw unsupported("permission", eventClass);
+    }
+
+    private static @Nullable Value option(Value spec, String key) {
+        Value value = spec.getMember(key);
+        return value == null || value.isNull() ? null : value;
+    }
+
+    private static boolean asBoolean(Value value, String key) {
+        if (!value.isBoolean()) {
+            throw new IllegalArgumentException("The event filter option \"" + key + "\" has to be true or false");
+        }
+        return value.asBoolean();
+    }
+
+    private static List<String> asStrings(Value value, String key) {
+        if (value.isString()) {
+            return List.of(value.asString());
+        }
+        if (value.hasArrayElements()) {
+            List<String> strings = new ArrayList<>();
+            for (long i = 0; i < value.getArraySize(); i++) {
+                Value element = value.getArrayElement(i);
+                if (!element.isString()) {
+                    throw new IllegalArgumentException("The event filter option \"" + key + "\" may only contain strings");
+                }
+                strings.add(element.asString());
+            }
+            return strings;
+        }
+        throw new IllegalArgumentException("The event filter option \"" + key + "\" has to be a string or an array of strings");
+    }
+
+    private static void require(boolean supported, String key, Class<? extends Event> eventClass) {
+        if (!supported) {
+            throw unsupported(key, eventClass);
+        }
+    }
+
+    static IllegalArgumentException unsupported(String key, Class<? extends Event> eventClass) {
+        return new IllegalArgumentException("The event filter option \"" + key + "\" is not supported by " + eventClass.getSimpleName());
+    }
+}
@@ -6,34 +6,81 @@
 
 package coolcostupit.openjs.modules;
 
+import coolcostupit.openjs.logging.pluginLogger;
 import org.bukkit.event.Event;
 import org.bukkit.event.Listener;
-import org.bukkit.plugin.EventExecutor;
-import org.bukkit.plugin.Plugin;
+import org.graalvm.polyglot.PolyglotException;
+import org.graalvm.polyglot.Value;
 
-import javax.script.Invocable;
-import javax.script.ScriptEngine;
-import javax.script.ScriptException;
+import javax.annotation.Nullable;
+import java.util.function.Predicate;
 import java.util.logging.Level;
-import java.util.logging.Logger;
 
-public class EventListenerWrapper implements Listener, EventExecutor {
-    private final Invocable invocable;
-    private final Object handler;
-    private final Logger logger;
+/**
+ * A script event handler, this is the listener object scripts get back from registerEvent.
+ * It is not registered with Bukkit itself, the {@link EventDispatcher} of the event calls it.
+ */
+public class EventListenerWrapper implements Listener {
+    private final ScriptFunction handleEvent;
+    private final String scriptName;
+    private final String handlerName;
+    private final ScriptMailbox mailbox;
+    private final EventDispatcher dispatcher;
+    private final @Nullable Predicate<Event> filter;
+    private final @Nullable EventThrottle throttle;
+
+    public EventListenerWrapper(Value handler, String scriptName, Class<? extends Event> eventClass, EventDispatcher dispatcher, EventOptions options) {
+        this.handleEvent = ScriptFunction.of(handler, "handleEvent");
+        this.filter = options.filter;
+        this.throttle = options.throttle == null ? null : new EventThrottle(options.throttle, this::handle);
+        this.scriptName = scriptName;
+        this.handlerName = "event handler of " + eventClass.getSimpleName();
+        this.mailbox = ScriptMailbox.of(scriptName);
+        this.dispatcher = dispatcher;
+    }
 
-    public EventListenerWrapper(ScriptEngine scriptEngine, Object handler, Plugin plugin) {
-        this.invocable = (Invocable) scriptEngine;
-        this.handler = handler;
-        this.logger = plugin.getLogger();
+    public void register() {
+        if (throttle != null) {
+            throttle.start();
+        }
+        dispatcher.addHandler(this);
     }
 
-    @Override
-    public void execute(Listener listener, Event event) {
-        try {
-            invocable.invokeMethod(handler, "handle", event);
-        } catch (ScriptException | NoSuchMethodException e) {
-            logger.log(Level.WARNING, "Failed to execute script event-handler: ", e);
+    public void unregister() {
+        dispatcher.removeHandler(this);
+        if (throttle != null) {
+            throttle.stop();
         }
     }
+
+    public @Nullable EventThrottle getThrottle() {
+        return throttle;
+    }
+
+    /**
+     * Evaluates the filter of the handler, this happens in Java without entering the script context.
+     */
+    public boolean accepts(Event event) {
+        return filter == null || filter.test(event);
+    }
+
+    /**
+     * Called by the dispatcher for events that passed the filter, throttled events are handled later or dropped.
+     */
+    public void dispatch(Event event) {
+        if (throttle == null || throttle.offer(event)) {
+            handle(event);
+        }
+    }
+
+    public void handle(Event event) {
+        // Events have to be handled on the calling thread, so the script context is owned for the duration of the call
+        mailbox.runExclusive(handlerName, () -> {
+            try {
+                handleEvent.call(event);
+            } catch (PolyglotException e) {
+                sharedClass.logger.log(Level.SEVERE, "[" + scriptName + "] " + e.getMessage(), pluginLogger.RED);
+            }
+        });
+    }
 }
@@ -0,0 +1,75 @@
+/*
+ * Copyright (c) 2025 coolcostupit
+ * Licensed under AGPL-3.0
+ * You may not remove this notice or claim this work as your own.
+ */
+
+package coolcostupit.openjs.modules;
+
+import org.bukkit.event.Event;
+import org.bukkit.event.EventPriority;
+import org.graalvm.polyglot.Value;
+
+import javax.annotation.Nullable;
+import java.util.Arrays;
+import java.util.Locale;
+import java.util.function.Predicate;
+
+/**
+ * The options a script can pass as third argument to registerEvent:
+ * <pre>
+ * registerEvent("org.bukkit.event.player.PlayerMoveEvent", handler, {
+ *     priority: "HIGH",
+ *     ignoreCancelled: true,
+ *     filter: { world: "world", blockChanged: true },
+ *     throttle: { key: "player", ticks: 10 }
+ * });
+ * </pre>
+ * Options are parsed once on registration, see {@link EventFilter} and {@link EventThrottle} for the specs.
+ */
+public class EventOptions {
+    public static final EventOptions DEFAULT = new EventOptions(EventPriority.NORMAL, false, null, null);
+
+    public final EventPriority priority;
+    public final boolean ignoreCancelled;
+    public final @Nullable Predicate<Event> filter;
+    public final @Nullable EventThrottle.Spec throttle;
+
+    private EventOptions(EventPriority priority, boolean ignoreCancelled, @Nullable Predicate<Event> filter, @Nullable EventThrottle.Spec throttle) {
+        this.priority = priority;
+        this.ignoreCancelled = ignoreCancelled;
+        this.filter = filter;
+        this.throttle = throttle;
+    }
+
+    /**
+     * @param options The options object of the script, may be null or undefined
+     * @param eventClass The event the options are used for
+     * @throws IllegalArgumentException If an option is invalid or not supported by the event
+     */
+    public static EventOptions parse(@Nullable Value options, Class<? extends Event> eventClass) {
+        if (options == null || options.isNull()) {
+            return DEFAULT;
+        }
+        if (!options.hasMembers()) {
+            throw new IllegalArgumentException("The event options have to be an object");
+        }
+
+        EventPriority priority = EventPriority.NORMAL;
+        Value priorityValue = options.getMember("priority");
+        if (priorityValue != null && !priorityValue.isNull()) {
+            try {
+                priority = EventPriority.valueOf(priorityValue.asString().toUpperCase(Locale.ROOT));
+            } catch (IllegalArgumentException | ClassCastException e) {
+                throw new IllegalArgumentException("Unknown event priority " + priorityValue + ", use one of " + Arrays.toString(EventPriority.values()));
+            }
+        }
+
+        Value ignoreCancelledValue = options.getMember("ignoreCancelled");
+        boolean ignoreCancelled = ignoreCancelledValue != null && ignoreCancelledValue.isBoolean() && ignoreCancelledValue.asBoolean();
+
+        Predicate<Event> filter = EventFilter.compile(options.getMember("filter"), eventClass);
+        EventThrottle.Spec throttle = EventThrottle.parse(options.getMember("throttle"), eventClass);
+        return new EventOptions(priority, ignoreCancelled, filter, throttle);
+    }
+}
@@ -0,0 +1,250 @@
+/*
+ * Copyright (c) 2025 coolcostupit
+ * Licensed under AGPL-3.0
+ * You may not remove this notice or claim this work as your own.
+ */
+
+package coolcostupit.openjs.modules;
+
+import org.bukkit.World;
+import org.bukkit.entity.Entity;
+import org.bukkit.entity.Player;
+import org.bukkit.event.Event;
+import org.bukkit.event.block.BlockEvent;
+import org.bukkit.event.entity.EntityEvent;
+import org.bukkit.event.player.PlayerEvent;
+import org.graalvm.polyglot.Value;
+
+import javax.annotation.Nullable;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Consumer;
+import java.util.function.Function;
+
+/**
+ * Limits how often a script handler sees an event per key (e.g. per player):
+ * <pre>
+ * throttle: {
+ *     key: "player",   // "player", "entity", "block", "world" or "global" (default)
+ *     ticks: 10,       // the length of the window, defaults to 1 tick
+ *     mode: "first"    // "first" (default) or "latest"
+ * }
+ * </pre>
+ * In "first" mode the first event of a key is handled right away and the following ones are dropped until
+ * the window is over. In "latest" mode the events of a key are merged and only the latest one is handled when
+ * the window ends, at that point the event has already been processed by the server and can no longer be cancelled.
+ * Events without a key (e.g. a "player" key for an entity event of a zombie) are never throttled.
+ * On Folia the merged events of players, entities and blocks are delivered on the thread that owns them,
+ * all other events on the global region thread that runs the tick listener.
+ */
+public class EventThrottle {
+    private static final Set<String> OPTIONS = Set.of("key", "ticks", "mode");
+    // Keys of "first" mode windows that are over are removed every few seconds
+    private static final long CLEANUP_INTERVAL = 200;
+
+    private final Spec spec;
+    private final Consumer<Event> delivery;
+    private final Map<Object, Long> windowEnds = new ConcurrentHashMap<>();
+    private final Map<Object, Event> latestEvents = new ConcurrentHashMap<>();
+    private final Runnable tickListener = this::onTick;
+    private final LongAdder dropped = new LongAdder();
+    private final LongAdder merged = new LongAdder();
+    private long nextFlushTick;
+
+    public enum Mode {
+        FIRST,
+        LATEST
+    }
+
+    /**
+     * The parsed throttle option, every handler creates its own {@link EventThrottle} from it.
+     */
+    public static class Spec {
+        public final Function<Event, Object> keyOf;
+        public final long ticks;
+        public final Mode mode;
+
+        private Spec(Function<Event, Object> keyOf, long ticks, Mode mode) {
+            this.keyOf = keyOf;
+            this.ticks = ticks;
+            this.mode = mode;
+        }
+    }
+
+    public EventThrottle(Spec spec, Consumer<Event> delivery) {
+        this.spec = spec;
+        this.delivery = delivery;
+    }
+
+    /**
+     * @param spec The throttle object of the script, may be null or undefined
+     * @param eventClass The event the throttle is used for
+     * @return The parsed spec or null if the handler is not throttled
+     * @throws IllegalArgumentException If the spec is invalid or the key is not supported by the event
+     */
+    public static @Nullable Spec parse(@Nullable Value spec, Class<? extends Event> eventClass) {
+        if (spec == null || spec.isNull()) {
+            return null;
+        }
+        if (!spec.hasMembers()) {
+            throw new IllegalArgumentException("The event throttle has to be an object");
+        }
+        for (String key : spec.getMemberKeys()) {
+            if (!OPTIONS.contains(key)) {
+                throw new IllegalArgumentException("Unknown event throttle option \"" + key + "\", use one of " + OPTIONS);
+            }
+        }
+
+        Value keyValue = spec.getMember("key");
+        String keyName = keyValue == null || keyValue.isNull() ? "global" : keyValue.toString();
+
+        long ticks = 1;
+        Value ticksValue = spec.getMember("ticks");
+        if (ticksValue != null && !ticksValue.isNull()) {
+            if (!ticksValue.isNumber() || ticksValue.asDouble() < 1) {
+                throw new IllegalArgumentException("The event throttle option \"ticks\" has to be a number of at least 1");
+            }
+            ticks = (long) ticksValue.asDouble();
+        }
+
+        Mode mode = Mode.FIRST;
+        Value modeValue = spec.getMember("mode");
+        if (modeValue != null && !modeValue.isNull()) {
+            try {
+                mode = Mode.valueOf(modeValue.toString().toUpperCase(Locale.ROOT));
+            } catch (IllegalArgumentException e) {
+                throw new IllegalArgumentException("Unknown event throttle mode " + modeValue + ", use \"first\" or \"latest\"");
+            }
+        }
+
+        return new Spec(keyExtractor(keyName, eventClass), ticks, mode);
+    }
+
+    private static Function<Event, Object> keyExtractor(String keyName, Class<? extends Event> eventClass) {
+        switch (keyName) {
+            case "global":
+                return event -> Boolean.TRUE;
+            case "player": {
+                Function<Event, Player> playerOf = EventFilter.playerExtractor(eventClass);
+                return event -> {
+                    Player player = playerOf.apply(event);
+                    return player == null ? null : player.getUniqueId();
+                };
+            }
+            case "entity":
+                if (PlayerEvent.class.isAssignableFrom(eventClass)) {
+                    return event -> ((PlayerEvent) event).getPlayer().getUniqueId();
+                }
+                if (EntityEvent.class.isAssignableFrom(eventClass)) {
+                    return event -> ((EntityEvent) event).getEntity().getUniqueId();
+                }
+                throw EventFilter.unsupported("throttle key entity", eventClass);
+            case "block":
+                if (BlockEvent.class.isAssignableFrom(eventClass)) {
+                    return event -> ((BlockEvent) event).getBlock().getLocation();
+                }
+                throw EventFilter.unsupported("throttle key block", eventClass);
+            case "world": {
+                Function<Event, World> worldOf = EventFilter.worldExtractor(eventClass);
+                return event -> {
+                    World world = worldOf.apply(event);
+                    return world == null ? null : world.getName();
+                };
+            }
+            default:
+                throw new IllegalArgumentException("Unknown event throttle key " + keyName + ", use player, entity, block, world or global");
+        }
+    }
+
+    public void start() {
+        nextFlushTick = TickDriver.currentTick() + spec.ticks;
+        TickDriver.addTickListener(tickListener);
+    }
+
+    public void stop() {
+        TickDriver.removeTickListener(tickListener);
+        windowEnds.clear();
+        latestEvents.clear();
+    }
+
+    /**
+     * @return True if the event should be handled right away
+     */
+    public boolean offer(Event event) {
+        Object key = spec.keyOf.apply(event);
+        if (key == null) {
+            return true;
+        }
+
+        if (spec.mode == Mode.LATEST) {
+            if (latestEvents.put(key, event) != null) {
+                merged.increment();
+            }
+            return false;
+        }
+
+        long now = TickDriver.currentTick();
+        // Claimed atomically, on Folia events of the same key can arrive on several region threads at once
+        boolean[] claimed = new boolean[1];
+        windowEnds.compute(key, (k, windowEnd) -> {
+            if (windowEnd != null && now < windowEnd) {
+                return windowEnd;
+            }
+            claimed[0] = true;
+            return now + spec.ticks;
+        });
+        if (!claimed[0]) {
+            dropped.increment();
+        }
+        return claimed[0];
+    }
+
+    public long getDropped() {
+        return dropped.sum();
+    }
+
+    public long getMerged() {
+        return merged.sum();
+    }
+
+    private void onTick() {
+        long now = TickDriver.currentTick();
+        if (spec.mode == Mode.LATEST) {
+            if (now < nextFlushTick) {
+                return;
+            }
+            nextFlushTick = now + spec.ticks;
+            for (Object key : latestEvents.keySet()) {
+                // Removed by key, so an event that arrives meanwhile is kept for the next window
+                Event event = latestEvents.remove(key);
+                if (event != null) {
+                    deliverLatest(event);
+                }
+            }
+        } else if (now % CLEANUP_INTERVAL == 0) {
+            windowEnds.values().removeIf(windowEnd -> windowEnd <= now);
+        }
+    }
+
+    private void deliverLatest(Event event) {
+        if (!FoliaSupport.isFolia()) {
+            delivery.accept(event);
+            return;
+        }
+        // Handlers of player, entity and block events use them, which Folia only allows on the thread that owns them.
+        // An entity that has been removed in the meantime drops its event
+        if (event instanceof PlayerEvent) {
+            FoliaSupport.runEntityTask(sharedClass.plugin, ((PlayerEvent) event).getPlayer(), () -> delivery.accept(event));
+        } else if (event instanceof EntityEvent) {
+            Entity entity = ((EntityEvent) event).getEntity();
+            FoliaSupport.runEntityTask(sharedClass.plugin, entity, () -> delivery.accept(event));
+        } else if (event instanceof BlockEvent) {
+            FoliaSupport.runRegionTask(sharedClass.plugin, ((BlockEvent) event).getBlock().getLocation(), () -> delivery.accept(event));
+        } else {
+            delivery.accept(event);
+        }
+    }
+}
@@ -6,45 +6,25 @@
 
 package coolcostupit.openjs.modules;
 
-import coolcostupit.openjs.foliascheduler.ServerImplementation;
-import coolcostupit.openjs.foliascheduler.TaskImplementation;
 import coolcostupit.openjs.logging.pluginLogger;
 import org.bukkit.Bukkit;
+import org.bukkit.Location;
 import org.bukkit.plugin.java.JavaPlugin;
-import coolcostupit.openjs.foliascheduler.FoliaCompatibility;
 import org.bukkit.entity.Entity;
-import org.bukkit.scheduler.BukkitTask;
-import org.bukkit.util.Consumer;
 
 import javax.script.Invocable;
 import javax.script.ScriptException;
 import java.lang.reflect.Method;
-import java.util.Map;
+import java.util.Collection;
+import java.util.List;
 import java.util.concurrent.*;
-import java.util.concurrent.atomic.AtomicInteger;
-import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Consumer;
 import java.util.logging.Level;
 
 public class FoliaSupport {
     private static Boolean cached = null;
     private static Boolean isFoliaChecked = null;
-
-    private enum TaskType {
-        BUKKIT,
-        FOLIA,
-        THREADPOOL
-    }
-
-    private static final Map<Integer, Object> activeTasks = new ConcurrentHashMap<>();
-    private static final Map<Integer, TaskType> taskTypes = new ConcurrentHashMap<>();
-    private static final AtomicInteger nextTaskId = new AtomicInteger(1);
-    private static final ExecutorService threadPool;
-
-    static {
-        threadPool = Executors.newCachedThreadPool();
-        sharedClass.TaskThreadPool = threadPool;
-    }
-
+    private static volatile ServerScheduler scheduler = null;
 
     public static boolean isFolia() {
         if (cached == null) {
@@ -61,110 +41,93 @@ public class FoliaSupport {
         return isFoliaChecked;
     }
 
-    public static int ScheduleTask(JavaPlugin plugin, Runnable function, long delay) {
-        Object task;
-        if (isFolia()) {
-            ServerImplementation scheduler = new FoliaCompatibility(plugin).getServerImplementation();
-            task = scheduler.async().runDelayed(function, delay);
-            return addTask(task, TaskType.FOLIA);
-        } else {
-            task = Bukkit.getScheduler().runTaskLater(plugin, function, delay);
-            return addTask(task, TaskType.BUKKIT);
+    /**
+     * Picks the scheduler of the server once, every task is scheduled through it afterwards.
+     */
+    public static synchronized void init(JavaPlugin plugin) {
+        scheduler = ServerScheduler.create(plugin, isFolia());
+    }
+
+    private static ServerScheduler scheduler(JavaPlugin plugin) {
+        ServerScheduler current = scheduler;
+        if (current == null) {
+            init(plugin);
+            current = scheduler;
         }
+        return current;
+    }
+
+    public static int ScheduleTask(JavaPlugin plugin, Runnable function, long delay) {
+        return scheduler(plugin).runLater(function, delay);
     }
 
 
     public static int runEntityTask(JavaPlugin plugin, Entity entity, Runnable function) {
-        if (isFolia()) {
-            ServerImplementation scheduler = new FoliaCompatibility(plugin).getServerImplementation();
-            TaskImplementation<?> foliaTask = scheduler.entity(entity).run(function);
-            return addTask(foliaTask, TaskType.FOLIA);
-
-        } else {
-            // Bukkit: just run Runnable on main thread
-            BukkitTask task = Bukkit.getScheduler().runTask(plugin, function);
-            return addTask(task, TaskType.BUKKIT);
-        }
+        return scheduler(plugin).runOnEntity(entity, function);
+    }
+
+    /**
+     * @param retired Called instead of the function if the entity is removed before the task runs
+     */
+    public static int runEntityTask(JavaPlugin plugin, Entity entity, Runnable function, Runnable retired) {
+        return scheduler(plugin).runOnEntity(entity, function, retired);
+    }
+
+    public static int runRegionTask(JavaPlugin plugin, Location location, Runnable function) {
+        return scheduler(plugin).runOnRegion(location, function);
+    }
+
+    public static int DelayRegionTask(JavaPlugin plugin, Location location, Runnable function, long delay) {
+        return scheduler(plugin).runOnRegionLater(location, function, delay);
+    }
+
+    public static int ScheduleRegionRepeatingTask(JavaPlugin plugin, Location location, Runnable function, long delay, long period) {
+        return scheduler(plugin).runOnRegionRepeating(location, function, delay, period);
+    }
+
+    /**
+     * Runs the function for many locations, grouped into one task per area on the thread that owns it.
+     *
+     * @return The ids of the tasks
+     */
+    public static List<Integer> runRegionTasks(JavaPlugin plugin, Collection<Location> locations, Consumer<List<Location>> function) {
+        return scheduler(plugin).runOnRegions(locations, function);
     }
 
 
     public static int DelayTask(JavaPlugin plugin, Runnable function, long delay) {
-        if (isFolia()) {
-            Future<?> task = threadPool.submit(() -> {
-                try {
-                    Thread.sleep(delay * 50L);
-                    function.run();
-                } catch (InterruptedException ignored) {}
-            });
-            return addTask(task, TaskType.THREADPOOL);
-        } else {
-            Object task = Bukkit.getScheduler().runTaskLaterAsynchronously(plugin, function, delay);
-            return addTask(task, TaskType.BUKKIT);
-        }
+        return scheduler(plugin).runAsyncLater(function, delay);
     }
 
     public static int runTask(JavaPlugin plugin, Runnable function) {
-        if (isFolia()) {
-            Future<?> task = threadPool.submit(function);
-            return addTask(task, TaskType.THREADPOOL);
-        } else {
-            Object task = Bukkit.getScheduler().runTaskAsynchronously(plugin, function);
-            return addTask(task, TaskType.BUKKIT);
-        }
+        return scheduler(plugin).runAsync(function);
     }
 
     public static int runTaskSynchronously(JavaPlugin plugin, Runnable function) {
-        Object task;
-        if (isFolia()) {
-            ServerImplementation scheduler = new FoliaCompatibility(plugin).getServerImplementation();
-            task = scheduler.global().run(function);
-            return addTask(task, TaskType.FOLIA);
-        } else {
-            task = Bukkit.getScheduler().runTask(plugin, function);
-            return addTask(task, TaskType.BUKKIT);
-        }
+        return scheduler(plugin).runGlobal(function);
     }
 
     public static int ScheduleRepeatingTask(JavaPlugin plugin, Runnable function, long delay, long period) {
-        Object task;
-        if (isFolia()) {
-            ServerImplementation scheduler = new FoliaCompatibility(plugin).getServerImplementation();
-            task = scheduler.async().runAtFixedRate(function, delay, period);
-            return addTask(task, TaskType.FOLIA);
-        } else {
-            task = Bukkit.getScheduler().runTaskTimer(plugin, function, delay, period);
-            return addTask(task, TaskType.BUKKIT);
-        }
+        return ScheduleRepeatingTask(plugin, function, delay, period, false);
     }
 
-    public static boolean CancelTask(int taskId) {
-        Object task = activeTasks.remove(taskId);
-        TaskType type = taskTypes.remove(taskId);
-
-        if (task == null || type == null) return false;
-
-        try {
-            switch (type) {
-                case FOLIA:
-                    ((TaskImplementation<?>) task).cancel();
-                    break;
-                case BUKKIT:
-                    ((BukkitTask) task).cancel();
-                    break;
-                case THREADPOOL:
-                    ((Future<?>) task).cancel(true);
-                    break;
-            }
-            return true;
-        } catch (Exception ignored) {
-            return false;
-        }
+    /**
+     * @param exact True to keep the runs aligned to the delay, otherwise the first run may be moved by up to one period
+     *              (and later runs by whole ticks) to spread repeating tasks of the same period over different ticks
+     */
+    public static int ScheduleRepeatingTask(JavaPlugin plugin, Runnable function, long delay, long period, boolean exact) {
+        return scheduler(plugin).runRepeating(function, delay, period, exact);
+    }
+
+    /**
+     * Repeating task on the main thread, on Folia on the global region thread.
+     * Unlike {@link #ScheduleRepeatingTask} it is never run asynchronously.
+     */
+    public static int ScheduleGlobalRepeatingTask(JavaPlugin plugin, Runnable function, long delay, long period) {
+        return scheduler(plugin).runGlobalRepeating(function, delay, period);
     }
 
-    private static int addTask(Object task, TaskType type) {
-        int taskId = nextTaskId.getAndIncrement();
-        activeTasks.put(taskId, task);
-        taskTypes.put(taskId, type);
-        return taskId;
+    public static boolean CancelTask(int taskId) {
+        return TaskRegistry.cancel(taskId);
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,127 @@
+/*
+ * Copyright (c) 2025 coolcostupit
+ * Licensed under AGPL-3.0
+ * You may not remove this notice or claim this work as your own.
+ */
+
+package coolcostupit.openjs.modules;
+
+import coolcostupit.openjs.logging.pluginLogger;
+import org.graalvm.polyglot.PolyglotException;
+import org.graalvm.polyglot.Value;
+
+import javax.annotation.Nullable;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.logging.Level;
+
+/**
+ * Runs a script generator a slice at a time for task.iterate.
+ * <p>
+ * Every tick the generator is resumed until it is done or the time budget of the tick is used up,
+ * the rest continues on the next tick. After every slice onProgress(lastValue, steps) is called,
+ * once the generator returns onDone(returnValue, steps). The task is a timer of the {@link TimerWheel},
+ * so it is cancelled through task.cancel and with its script like every other task.
+ */
+public class GeneratorTask {
+    private final String scriptName;
+    private final ScriptMailbox mailbox;
+    private final ScriptFunction next;
+    private final @Nullable ScriptFunction onProgress;
+    private final @Nullable ScriptFunction onDone;
+    private final long budgetNanos;
+    private final @Nullable TaskGroup group = TaskGroup.current();
+    // A posted slice that has not run yet, the next tick skips its slice instead of queueing another one
+    private final AtomicBoolean pending = new AtomicBoolean(false);
+    private long steps = 0;
+    private volatile boolean finished = false;
+    private int taskId;
+    private volatile TimerWheel.Timer timer;
+
+    private GeneratorTask(String scriptName, ScriptFunction next, @Nullable Value options, long budgetNanos) {
+        this.scriptName = scriptName;
+        this.mailbox = ScriptMailbox.of(scriptName);
+        this.next = next;
+        this.onProgress = options == null ? null : ScriptFunction.find(options, "onProgress");
+        this.onDone = options == null ? null : ScriptFunction.find(options, "onDone");
+        this.budgetNanos = budgetNanos;
+    }
+
+    /**
+     * @param generator A generator object of the script
+     * @param msPerTick How many milliseconds the generator may run per tick
+     * @param options Optional onProgress and onDone functions
+     * @return The id of the task
+     * @throws IllegalArgumentException If the generator has no next function
+     */
+    public static int start(String scriptName, Value generator, double msPerTick, @Nullable Value options) {
+        ScriptFunction next = ScriptFunction.find(generator, "next");
+        if (next == null) {
+            throw new IllegalArgumentException("task.iterate needs a generator");
+        }
+        long budgetNanos = (long) (Math.max(0.1, msPerTick) * 1_000_000L);
+        GeneratorTask task = new GeneratorTask(scriptName, next, options, budgetNanos);
+
+        // Like task.repeat, the slices run on the server thread except on Folia
+        Runnable slice = () -> TaskGroup.callAs(task.group, () -> {
+            task.slice();
+            return null;
+        });
+        Runnable run = FoliaSupport.isFolia()
+                ? () -> {
+                    if (task.pending.compareAndSet(false, true)) {
+                        task.mailbox.post("task.iterate", slice, () -> task.pending.set(false));
+                    }
+                }
+                : () -> task.mailbox.runExclusive("task.iterate", slice);
+        TaskRegistry.Task registered = TaskRegistry.reserve(TaskRegistry.TaskType.TIMER);
+        task.taskId = registered.getId();
+        TaskRegistry.assign(task.taskId, scriptName);
+        task.timer = TimerWheel.schedule(1, 1, run);
+        registered.attach(task.timer);
+        if (task.finished) {
+            // The first slice already finished the generator before the timer was known
+            task.timer.cancel();
+        }
+        return task.taskId;
+    }
+
+    private void slice() {
+        TimerWheel.Timer current = timer;
+        if (finished || (current != null && current.isDone())) {
+            return;
+        }
+
+        long deadline = System.nanoTime() + budgetNanos;
+        Value lastValue = null;
+        try {
+            do {
+                Value step = next.call();
+                steps++;
+                if (step.getMember("done").asBoolean()) {
+                    finish();
+                    if (onDone != null) {
+                        onDone.call(step.getMember("value"), steps);
+                    }
+                    return;
+                }
+                lastValue = step.getMember("value");
+            } while (System.nanoTime() < deadline);
+
+            if (onProgress != null) {
+                onProgress.call(lastValue, steps);
+            }
+        } catch (PolyglotException e) {
+            finish();
+            sharedClass.logger.scriptlog(Level.WARNING, scriptName, "task.iterate stopped: " + e.getMessage(), pluginLogger.RED);
+        }
+    }
+
+    private void finish() {
+        finished = true;
+        TaskRegistry.complete(taskId);
+        TimerWheel.Timer current = timer;
+        if (current != null) {
+            current.cancel();
+        }
+    }
+}
@@ -0,0 +1,203 @@
+/*
+ * Copyright (c) 2025 coolcostupit
+ * Licensed under AGPL-3.0
+ * You may not remove this notice or claim this work as your own.
+ */
+
+package coolcostupit.openjs.modules;
+
+import coolcostupit.openjs.logging.pluginLogger;
+
+import javax.annotation.Nullable;
+import java.util.Deque;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedDeque;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.logging.Level;
+
+/**
+ * Runs the work of task.main on the server thread (on Folia the global region thread).
+ * <p>
+ * Instead of a scheduler task per call, the work is queued per script and drained by the {@link TickDriver}
+ * until the budget of the tick ("MainQueueBudget") is used up. The scripts take turns, one entry each, and the entries
+ * of a script run in FIFO order. What is left waits for the next tick, so a script that pushes thousands of world
+ * changes to the server thread cannot stall a single tick. The first entry is always looked at, even if the budget
+ * is smaller than the time it takes.
+ * <p>
+ * The server thread never waits for the context of a script here. A script that is busy on another thread is
+ * left alone for the rest of the tick, its entries stay queued in their order instead of blocking the tick for up
+ * to "ScriptLockTimeout" or being looked at one by one.
+ */
+public class MainThreadQueue {
+    // Only the server thread takes entries out, empty queues are removed under the lock of their key
+    private static final Map<ScriptMailbox, Deque<Entry>> scriptQueues = new ConcurrentHashMap<>();
+    private static final AtomicInteger queueDepth = new AtomicInteger();
+    private static final AtomicInteger peakQueueDepth = new AtomicInteger();
+    private static final Runnable tickListener = MainThreadQueue::drain;
+    private static final LongAdder ran = new LongAdder();
+    private static final LongAdder deferred = new LongAdder();
+    private static final LongAdder carriedOverTicks = new LongAdder();
+    private static volatile int lastCarryOver = 0;
+    private static volatile long budgetNanos = 5_000_000L;
+
+    static {
+        StatsReporter.register("Main queue", () -> List.of(
+                "queued=" + queueDepth.get() + " peak=" + peakQueueDepth.get() + " ran=" + ran.sum()
+                        + " deferred (script busy)=" + deferred.sum() + " scripts=" + scriptQueues.size(),
+                "carried over ticks=" + carriedOverTicks.sum() + " last carry over=" + lastCarryOver
+                        + " budget=" + StatsReporter.formatNanos(budgetNanos)));
+    }
+
+    /**
+     * Queued work, cancelling it before it runs removes it from the queue on the next drain.
+     */
+    public static class Entry {
+        private final ScriptMailbox mailbox;
+        private final String handlerName;
+        private final Runnable task;
+        private final int taskId;
+        private final @Nullable Runnable whenDone;
+        private volatile boolean cancelled = false;
+
+        private Entry(ScriptMailbox mailbox, String handlerName, Runnable task, int taskId, @Nullable Runnable whenDone) {
+            this.mailbox = mailbox;
+            this.handlerName = handlerName;
+            this.task = task;
+            this.taskId = taskId;
+            this.whenDone = whenDone;
+        }
+
+        public void cancel() {
+            cancelled = true;
+        }
+    }
+
+    public static void start() {
+        budgetNanos = Math.max(1, sharedClass.configUtil.getConfigFromBuffer("MainQueueBudget", 5)) * 1_000_000L;
+        TickDriver.removeTickListener(tickListener);
+        TickDriver.addTickListener(tickListener);
+    }
+
+    public static void stop() {
+        TickDriver.removeTickListener(tickListener);
+        for (ScriptMailbox mailbox : scriptQueues.keySet()) {
+            Deque<Entry> entries = scriptQueues.remove(mailbox);
+            Entry entry;
+            while (entries != null && (entry = entries.poll()) != null) {
+                queueDepth.decrementAndGet();
+                entry.cancel();
+            }
+        }
+    }
+
+    /**
+     * Queues script code for the server thread, it runs inside the context of the script.
+     *
+     * @return The id of the task, it can be cancelled until it runs
+     */
+    public static int submit(ScriptMailbox mailbox, String handlerName, Runnable function) {
+        return submit(mailbox, handlerName, function, null);
+    }
+
+    /**
+     * Like {@link #submit(ScriptMailbox, String, Runnable)}.
+     *
+     * @param whenDone Runs on the server thread once the work has run, been skipped (e.g. by the watchdog) or been cancelled
+     */
+    public static int submit(ScriptMailbox mailbox, String handlerName, Runnable function, @Nullable Runnable whenDone) {
+        TaskRegistry.Task task = TaskRegistry.reserve(TaskRegistry.TaskType.QUEUE);
+        Entry entry = new Entry(mailbox, handlerName, function, task.getId(), whenDone);
+        task.attach(entry);
+        scriptQueues.compute(mailbox, (key, entries) -> {
+            Deque<Entry> deque = entries != null ? entries : new ConcurrentLinkedDeque<>();
+            deque.add(entry);
+            return deque;
+        });
+        peakQueueDepth.accumulateAndGet(queueDepth.incrementAndGet(), Math::max);
+        return task.getId();
+    }
+
+    private static void drain() {
+        long deadline = System.nanoTime() + budgetNanos;
+        boolean first = true;
+        // Scripts that were busy during this drain, none of their entries is looked at again until the next tick
+        Set<ScriptMailbox> busy = new HashSet<>();
+        boolean progress = true;
+        while (progress) {
+            progress = false;
+            for (Map.Entry<ScriptMailbox, Deque<Entry>> script : scriptQueues.entrySet()) {
+                if (!first && System.nanoTime() >= deadline) {
+                    break;
+                }
+                ScriptMailbox mailbox = script.getKey();
+                if (busy.contains(mailbox)) {
+                    continue;
+                }
+                first = false;
+
+                Deque<Entry> entries = script.getValue();
+                Entry entry = entries.peek();
+                if (entry == null) {
+                    scriptQueues.computeIfPresent(mailbox, (key, current) -> current.isEmpty() ? null : current);
+                    continue;
+                }
+                progress = true;
+                if (entry.cancelled) {
+                    entries.poll();
+                    queueDepth.decrementAndGet();
+                    done(entry);
+                    continue;
+                }
+                if (!tryRun(entry)) {
+                    busy.add(mailbox);
+                    deferred.increment();
+                    continue;
+                }
+                entries.poll();
+                queueDepth.decrementAndGet();
+                ran.increment();
+            }
+            if (System.nanoTime() >= deadline) {
+                break;
+            }
+        }
+
+        int left = queueDepth.get();
+        lastCarryOver = left;
+        if (left > 0) {
+            carriedOverTicks.increment();
+        }
+    }
+
+    /**
+     * @return False if the script is busy, the entry has not run then
+     */
+    private static boolean tryRun(Entry entry) {
+        try {
+            if (!entry.mailbox.tryRunExclusive(entry.handlerName, entry.task)) {
+                return false;
+            }
+        } catch (Exception e) {
+            sharedClass.logger.log(Level.WARNING, "Main thread task failed: " + e.getMessage(), pluginLogger.ORANGE);
+        }
+        TaskRegistry.complete(entry.taskId);
+        done(entry);
+        return true;
+    }
+
+    private static void done(Entry entry) {
+        if (entry.whenDone == null) {
+            return;
+        }
+        try {
+            entry.whenDone.run();
+        } catch (Exception e) {
+            sharedClass.logger.log(Level.WARNING, "Main thread task failed: " + e.getMessage(), pluginLogger.ORANGE);
+        }
+    }
+}
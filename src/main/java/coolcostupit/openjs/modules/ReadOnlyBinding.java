@@ -0,0 +1,118 @@
+/*
+ * Copyright (c) 2025 coolcostupit
+ * Licensed under AGPL-3.0
+ * You may not remove this notice or claim this work as your own.
+ */
+
+package coolcostupit.openjs.modules;
+
+import org.graalvm.polyglot.Context;
+import org.graalvm.polyglot.Value;
+import org.graalvm.polyglot.proxy.ProxyArray;
+import org.graalvm.polyglot.proxy.ProxyObject;
+
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.util.Arrays;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Immutable facade for Java objects that are exposed to scripts as in-build variables.
+ * Reads and method calls are forwarded to the wrapped object, writes and deletes are rejected.
+ * <p>
+ * This replaces the old deepFreeze walk, which recursively visited every member of the host objects
+ * on every script load. The member names are resolved once per class, so creating a facade is cheap.
+ * Every script gets its own facades: the methods are resolved once in the context of the script and reused
+ * on every further call, a facade that ends up in another script resolves its members there on every access.
+ * <p>
+ * Only use this for objects that scripts never hand back to Java methods, a facade is not an instance of
+ * the wrapped class (this is why "plugin" and "scriptEngine" are not wrapped).
+ */
+public class ReadOnlyBinding implements ProxyObject {
+    private static final ClassValue<MemberKeys> memberKeys = new ClassValue<>() {
+        @Override
+        protected MemberKeys computeValue(Class<?> type) {
+            return new MemberKeys(type);
+        }
+    };
+
+    private final Object target;
+    private final MemberKeys keys;
+    // Methods resolved in the owner context, fields are always read again since they may change
+    private final Map<String, Value> methods = new ConcurrentHashMap<>();
+    private volatile Context owner;
+
+    private static class MemberKeys {
+        public final Set<String> names;
+        public final Set<String> methodNames;
+        public final Object[] array;
+
+        public MemberKeys(Class<?> type) {
+            Set<String> collected = new LinkedHashSet<>();
+            Set<String> collectedMethods = new LinkedHashSet<>();
+            for (Field field : type.getFields()) {
+                collected.add(field.getName());
+            }
+            for (Method method : type.getMethods()) {
+                collected.add(method.getName());
+                collectedMethods.add(method.getName());
+            }
+            this.names = Set.copyOf(collected);
+            this.methodNames = Set.copyOf(collectedMethods);
+            this.array = collected.toArray();
+        }
+    }
+
+    public ReadOnlyBinding(Object target) {
+        this.target = target;
+        this.keys = memberKeys.get(target.getClass());
+    }
+
+    @Override
+    public Object getMember(String key) {
+        if (!keys.names.contains(key)) {
+            return null;
+        }
+        // A resolved member belongs to the context it has been resolved in, it cannot be handed to another one
+        if (!keys.methodNames.contains(key) || ownerContext() != Context.getCurrent()) {
+            return Value.asValue(target).getMember(key);
+        }
+        return methods.computeIfAbsent(key, name -> Value.asValue(target).getMember(name));
+    }
+
+    private Context ownerContext() {
+        Context context = owner;
+        if (context == null) {
+            synchronized (this) {
+                if (owner == null) {
+                    owner = Context.getCurrent();
+                }
+                context = owner;
+            }
+        }
+        return context;
+    }
+
+    @Override
+    public Object getMemberKeys() {
+        return ProxyArray.fromArray(Arrays.copyOf(keys.array, keys.array.length));
+    }
+
+    @Override
+    public boolean hasMember(String key) {
+        return keys.names.contains(key);
+    }
+
+    @Override
+    public void putMember(String key, Value value) {
+        throw new UnsupportedOperationException("Cannot modify the in-build variable member \"" + key + "\"");
+    }
+
+    @Override
+    public boolean removeMember(String key) {
+        throw new UnsupportedOperationException("Cannot remove the in-build variable member \"" + key + "\"");
+    }
+}
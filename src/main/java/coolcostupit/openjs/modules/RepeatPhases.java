@@ -0,0 +1,205 @@
+/*
+ * Copyright (c) 2025 coolcostupit
+ * Licensed under AGPL-3.0
+ * You may not remove this notice or claim this work as your own.
+ */
+
+package coolcostupit.openjs.modules;
+
+import javax.annotation.Nullable;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Consumer;
+
+/**
+ * Spreads repeating timers over the ticks of their period, so that e.g. every task.repeat(0, 1, ...) does not
+ * fire on the same tick as all the others.
+ * <p>
+ * All repeating timers run from the single {@link TimerWheel}, so timers of the same period are already coalesced
+ * into one driver. For every period the cost of the timers is measured per phase (the tick within the period).
+ * A new timer starts in the phase with the lowest cost, and a timer of a phase that is far more expensive
+ * than the cheapest one moves there. Timers that have to stay aligned to their delay opt out with exact = true.
+ * Timers that the wheel only hands over to another thread (on Folia) are measured where they actually run.
+ */
+public class RepeatPhases {
+    // Longer periods are rare, spreading them would mostly delay their first run
+    private static final long MAX_SPREAD_PERIOD = 1200;
+    // A timer only moves if its phase costs at least this much more than the cheapest phase would with it
+    private static final long REBALANCE_NANOS = 1_000_000L;
+    // Phases within this cost count as equal, the one with fewer timers is used
+    private static final long COST_BUCKET_NANOS = 100_000L;
+    // Runs a timer stays in its phase before it may move (again)
+    private static final int MOVE_COOLDOWN_RUNS = 20;
+
+    // Guarded by itself
+    private static final Map<Long, PeriodGroup> groups = new HashMap<>();
+    private static final LongAdder moves = new LongAdder();
+
+    static {
+        StatsReporter.register("Repeat phases", () -> {
+            List<String> lines = new ArrayList<>();
+            synchronized (groups) {
+                for (Map.Entry<Long, PeriodGroup> entry : groups.entrySet()) {
+                    PeriodGroup group = entry.getValue();
+                    long busiest = 0;
+                    long cheapest = Long.MAX_VALUE;
+                    for (long load : group.load) {
+                        busiest = Math.max(busiest, load);
+                        cheapest = Math.min(cheapest, load);
+                    }
+                    lines.add("period " + entry.getKey() + ": timers=" + group.size
+                            + " busiest phase=" + StatsReporter.formatNanos(busiest)
+                            + " cheapest phase=" + StatsReporter.formatNanos(cheapest));
+                }
+            }
+            lines.add("moved=" + moves.sum());
+            return lines;
+        });
+    }
+
+    private static class PeriodGroup {
+        private final long period;
+        private final long[] load;
+        private final int[] timers;
+        private int size = 0;
+
+        private PeriodGroup(long period) {
+            this.period = period;
+            this.load = new long[(int) period];
+            this.timers = new int[(int) period];
+        }
+
+        private int cheapestPhase() {
+            int best = 0;
+            for (int phase = 1; phase < load.length; phase++) {
+                long bucket = load[phase] / COST_BUCKET_NANOS;
+                long bestBucket = load[best] / COST_BUCKET_NANOS;
+                if (bucket < bestBucket || (bucket == bestBucket && timers[phase] < timers[best])) {
+                    best = phase;
+                }
+            }
+            return best;
+        }
+    }
+
+    private static class Slot {
+        private final PeriodGroup group;
+        private int phase;
+        // The average cost of a run, -1 until it has run once
+        private long cost = -1;
+        private int runsSinceMove = 0;
+        private boolean released = false;
+        private volatile TimerWheel.Timer timer;
+
+        private Slot(PeriodGroup group, int phase) {
+            this.group = group;
+            this.phase = phase;
+        }
+    }
+
+    /**
+     * Schedules a repeating timer on the {@link TimerWheel}.
+     *
+     * @param delayTicks Ticks until the first run, the phase spreading adds less than one period to it
+     * @param periodTicks Ticks between runs, at least 1
+     * @param task Runs on the thread that drives the ticks
+     * @param exact True to keep the timer aligned to its delay
+     * @return The timer, used to cancel it
+     */
+    public static TimerWheel.Timer schedule(long delayTicks, long periodTicks, Runnable task, boolean exact) {
+        return schedule(delayTicks, periodTicks, task, exact, null);
+    }
+
+    /**
+     * Like {@link #schedule(long, long, Runnable, boolean)}, for tasks that do not run on the thread that drives the ticks.
+     * Timing the hand over would only measure the cost of queueing, so the run is timed inside the handed over task.
+     *
+     * @param handOff Receives every run on the thread that drives the ticks and passes it to the thread that runs it
+     */
+    public static TimerWheel.Timer schedule(long delayTicks, long periodTicks, Runnable task, boolean exact, @Nullable Consumer<Runnable> handOff) {
+        long period = Math.max(1L, periodTicks);
+        long delay = Math.max(1L, delayTicks);
+        if (exact || period < 2 || period > MAX_SPREAD_PERIOD) {
+            return TimerWheel.schedule(delay, period, handOff == null ? task : () -> handOff.accept(task));
+        }
+
+        Slot slot;
+        long shift;
+        synchronized (groups) {
+            PeriodGroup group = groups.computeIfAbsent(period, PeriodGroup::new);
+            int phase = group.cheapestPhase();
+            shift = Math.floorMod(phase - (TimerWheel.now() + delay), period);
+            slot = new Slot(group, phase);
+            group.timers[phase]++;
+            group.size++;
+        }
+
+        Runnable timed = () -> run(slot, task);
+        TimerWheel.Timer timer = TimerWheel.schedule(delay + shift, period, handOff == null ? timed : () -> handOff.accept(timed));
+        timer.setOnCancel(() -> release(slot));
+        slot.timer = timer;
+        return timer;
+    }
+
+    private static void run(Slot slot, Runnable task) {
+        long start = System.nanoTime();
+        try {
+            task.run();
+        } finally {
+            record(slot, System.nanoTime() - start);
+        }
+    }
+
+    private static void record(Slot slot, long nanos) {
+        long shift;
+        synchronized (groups) {
+            if (slot.released) {
+                return;
+            }
+            PeriodGroup group = slot.group;
+            long previous = Math.max(0L, slot.cost);
+            slot.cost = slot.cost < 0 ? nanos : (slot.cost * 7 + nanos) / 8;
+            group.load[slot.phase] += slot.cost - previous;
+
+            if (++slot.runsSinceMove < MOVE_COOLDOWN_RUNS || group.timers[slot.phase] < 2) {
+                return;
+            }
+            int target = group.cheapestPhase();
+            if (target == slot.phase || group.load[target] + slot.cost + REBALANCE_NANOS > group.load[slot.phase]) {
+                return;
+            }
+
+            group.load[slot.phase] -= slot.cost;
+            group.timers[slot.phase]--;
+            group.load[target] += slot.cost;
+            group.timers[target]++;
+            shift = Math.floorMod(target - slot.phase, group.period);
+            slot.phase = target;
+            slot.runsSinceMove = 0;
+        }
+        // Outside of the lock, the wheel is always locked after the groups and never the other way around
+        TimerWheel.Timer timer = slot.timer;
+        if (timer != null) {
+            timer.postpone(shift);
+            moves.increment();
+        }
+    }
+
+    private static void release(Slot slot) {
+        synchronized (groups) {
+            if (slot.released) {
+                return;
+            }
+            slot.released = true;
+            PeriodGroup group = slot.group;
+            group.load[slot.phase] -= Math.max(0L, slot.cost);
+            group.timers[slot.phase]--;
+            if (--group.size == 0) {
+                groups.remove(group.period);
+            }
+        }
+    }
+}
@@ -7,12 +7,57 @@
 package coolcostupit.openjs.modules;
 
 import com.oracle.truffle.js.scriptengine.GraalJSScriptEngine;
+import coolcostupit.openjs.logging.pluginLogger;
 import org.graalvm.polyglot.Context;
 import org.graalvm.polyglot.Engine;
 import org.graalvm.polyglot.HostAccess;
+import org.graalvm.polyglot.PolyglotException;
+import org.graalvm.polyglot.Source;
+import org.graalvm.polyglot.SourceSection;
+
+import javax.script.ScriptException;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.logging.Level;
 
 public class ScriptEngine {
     private static Engine graalEngine;
+    private static final Map<String, CachedSource> sourceCache = new ConcurrentHashMap<>();
+    private static final LongAdder contextSetups = new LongAdder();
+    private static final LongAdder contextSetupNanos = new LongAdder();
+    private static final AtomicLong lastContextSetupNanos = new AtomicLong();
+    private static final AtomicLong maxContextSetupNanos = new AtomicLong();
+
+    static {
+        StatsReporter.register("Script contexts", () -> {
+            long setups = contextSetups.sum();
+            return List.of(
+                    "Contexts created: " + setups,
+                    "Cached script sources: " + sourceCache.size(),
+                    "Setup time (avg/last/max): "
+                            + StatsReporter.formatNanos(setups == 0 ? 0 : contextSetupNanos.sum() / setups) + " / "
+                            + StatsReporter.formatNanos(lastContextSetupNanos.get()) + " / "
+                            + StatsReporter.formatNanos(maxContextSetupNanos.get())
+            );
+        });
+    }
+
+    private static class CachedSource {
+        public final String contentHash;
+        public final Source source;
+
+        public CachedSource(String contentHash, Source source) {
+            this.contentHash = contentHash;
+            this.source = source;
+        }
+    }
 
     /**
      * Get a new GraalJS ScriptEngine instance with Nashorn compatibility mode enabled.
@@ -21,6 +66,18 @@ public class ScriptEngine {
      * @return A new javax.script.ScriptEngine instance backed by GraalJS
      */
     public static javax.script.ScriptEngine getEngine() {
+        // Create a new ScriptEngine with Nashorn compatibility mode
+        // This ensures existing scripts using Java.type(), Java.to(), etc. continue to work
+        return GraalJSScriptEngine.create(getGraalEngine(),
+                Context.newBuilder("js")
+                        .allowExperimentalOptions(true)
+                        .allowHostAccess(HostAccess.ALL)
+                        .allowHostClassLookup(className -> true)
+                        .option("js.nashorn-compat", "true")
+                        .option("js.ecmascript-version", "2022"));
+    }
+
+    private static synchronized Engine getGraalEngine() {
         if (graalEngine == null) {
             // Create a shared GraalVM engine for better performance
             // The engine can be shared across contexts while each ScriptEngine gets its own Context
@@ -29,15 +86,92 @@ public class ScriptEngine {
                     .option("engine.WarnInterpreterOnly", "false")
                     .build();
         }
+        return graalEngine;
+    }
 
-        // Create a new ScriptEngine with Nashorn compatibility mode
-        // This ensures existing scripts using Java.type(), Java.to(), etc. continue to work
-        return GraalJSScriptEngine.create(graalEngine,
-                Context.newBuilder("js")
-                        .allowExperimentalOptions(true)
-                        .allowHostAccess(HostAccess.ALL)
-                        .allowHostClassLookup(className -> true)
-                        .option("js.nashorn-compat", "true")
-                        .option("js.ecmascript-version", "2022"));
+    /**
+     * Returns the cached {@link Source} for a script, only building a new one when the content changed.
+     * Sources are marked as cached, so every context created from the shared engine re-uses the parsed
+     * and compiled code of an unchanged script instead of starting from scratch on every reload.
+     *
+     * @param scriptId The script identifier (e.g. "utilities/helper.js"), also used as the source name
+     * @param code The final (preprocessed) code of the script
+     * @return A cached source for the given script content
+     */
+    public static Source getScriptSource(String scriptId, String code) {
+        String contentHash = hashContent(code);
+        CachedSource cached = sourceCache.get(scriptId);
+        if (cached != null && cached.contentHash.equals(contentHash)) {
+            return cached.source;
+        }
+
+        Source source = Source.newBuilder("js", code, scriptId)
+                .cached(true)
+                .buildLiteral();
+        sourceCache.put(scriptId, new CachedSource(contentHash, source));
+        return source;
+    }
+
+    /**
+     * Drops cached sources of scripts that no longer exist, so deleted scripts do not pin their code.
+     *
+     * @param scriptIds The identifiers of all scripts that are still present
+     */
+    public static void retainSources(Set<String> scriptIds) {
+        sourceCache.keySet().retainAll(scriptIds);
+    }
+
+    /**
+     * Evaluates a pre-built source inside the polyglot context of a script engine.
+     * Unlike {@link javax.script.ScriptEngine#eval(String)} this keeps the identity of the source,
+     * which is what allows the shared engine to re-use its code cache.
+     *
+     * @param scriptEngine The script engine to evaluate in
+     * @param source The source to evaluate
+     * @return The result of the evaluation
+     * @throws ScriptException If the evaluation failed
+     */
+    public static Object eval(javax.script.ScriptEngine scriptEngine, Source source) throws ScriptException {
+        try {
+            return ((GraalJSScriptEngine) scriptEngine).getPolyglotContext().eval(source);
+        } catch (PolyglotException e) {
+            SourceSection location = e.getSourceLocation();
+            if (location != null) {
+                throw new ScriptException(e.getMessage(), source.getName(), location.getStartLine(), location.getStartColumn());
+            }
+            throw new ScriptException(e.getMessage());
+        }
+    }
+
+    /**
+     * Timing hook for the per-context setup (engine creation, bindings and the helper prelude).
+     * The user script itself is not part of the measurement.
+     *
+     * @param scriptId The script the context has been created for
+     * @param nanos The time the setup took in nanoseconds
+     */
+    public static void recordContextSetup(String scriptId, long nanos) {
+        contextSetups.increment();
+        contextSetupNanos.add(nanos);
+        lastContextSetupNanos.set(nanos);
+        maxContextSetupNanos.accumulateAndGet(nanos, Math::max);
+
+        if (sharedClass.configUtil.getConfigFromBuffer("LogScriptTimings", false)) {
+            sharedClass.logger.scriptlog(Level.INFO, scriptId, "Context setup took " + StatsReporter.formatNanos(nanos), pluginLogger.LIGHT_BLUE);
+        }
+    }
+
+    private static String hashContent(String code) {
+        try {
+            byte[] digest = MessageDigest.getInstance("SHA-256").digest(code.getBytes(StandardCharsets.UTF_8));
+            StringBuilder hex = new StringBuilder(digest.length * 2);
+            for (byte b : digest) {
+                hex.append(Character.forDigit((b >> 4) & 0xF, 16)).append(Character.forDigit(b & 0xF, 16));
+            }
+            return hex.toString();
+        } catch (NoSuchAlgorithmException e) {
+            // SHA-256 is always available, fall back to the string hash anyway
+            return Integer.toHexString(code.hashCode()) + ":" + code.length();
+        }
     }
 }
@@ -0,0 +1,208 @@
+/*
+ * Copyright (c) 2025 coolcostupit
+ * Licensed under AGPL-3.0
+ * You may not remove this notice or claim this work as your own.
+ */
+
+package coolcostupit.openjs.modules;
+
+import coolcostupit.openjs.logging.pluginLogger;
+
+import javax.annotation.Nullable;
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.UnaryOperator;
+import java.util.logging.Level;
+
+/**
+ * The thread pools of the plugin. All of them are bounded and use named daemon threads,
+ * so a script that spawns work in a loop fills a queue instead of creating thousands of threads.
+ * <ul>
+ *     <li>tasks: runs the mailboxes of the scripts (spawned tasks, script bodies, async timers), on Java 21+
+ *     these run on virtual threads ("UseVirtualThreads"), so task.wait and the other waits park instead of
+ *     occupying a platform thread. The queue limit of every script mailbox still bounds the amount of work.</li>
+ *     <li>loader: sets up script contexts while all scripts are (re-)loaded</li>
+ *     <li>timer: waits for delayed work and hands it over to the task pool, it never runs script code itself</li>
+ * </ul>
+ * The sizes are read from the config when the plugin is enabled.
+ */
+public class ScriptExecutors {
+    private static final Map<String, ThreadPoolExecutor> pools = new LinkedHashMap<>();
+    private static final Map<ThreadPoolExecutor, CountingAbortPolicy> rejections = new ConcurrentHashMap<>();
+    private static final AtomicInteger activeVirtualTasks = new AtomicInteger();
+    private static final LongAdder completedVirtualTasks = new LongAdder();
+    private static ExecutorService tasks;
+    private static ThreadPoolExecutor loader;
+    private static ScheduledThreadPoolExecutor storage;
+    private static ScheduledThreadPoolExecutor timer;
+
+    static {
+        StatsReporter.register("Executors", () -> {
+            List<String> lines = new ArrayList<>();
+            synchronized (ScriptExecutors.class) {
+                for (Map.Entry<String, ThreadPoolExecutor> entry : pools.entrySet()) {
+                    ThreadPoolExecutor pool = entry.getValue();
+                    CountingAbortPolicy policy = rejections.get(pool);
+                    lines.add(entry.getKey() + ": threads=" + pool.getPoolSize() + "/" + pool.getMaximumPoolSize()
+                            + " active=" + pool.getActiveCount()
+                            + " queued=" + pool.getQueue().size()
+                            + " completed=" + pool.getCompletedTaskCount()
+                            + " largest=" + pool.getLargestPoolSize()
+                            + " rejected=" + (policy == null ? 0 : policy.rejected.sum()));
+                }
+                if (tasks != null && !(tasks instanceof ThreadPoolExecutor)) {
+                    lines.add(0, "tasks: virtual threads active=" + activeVirtualTasks.get() + " completed=" + completedVirtualTasks.sum());
+                }
+            }
+            if (lines.isEmpty()) {
+                lines.add("The executors have not been started.");
+            }
+            return lines;
+        });
+    }
+
+    private static class CountingAbortPolicy implements RejectedExecutionHandler {
+        private final String poolName;
+        private final LongAdder rejected = new LongAdder();
+
+        private CountingAbortPolicy(String poolName) {
+            this.poolName = poolName;
+        }
+
+        @Override
+        public void rejectedExecution(Runnable task, ThreadPoolExecutor executor) {
+            rejected.increment();
+            throw new RejectedExecutionException(executor.isShutdown()
+                    ? "The " + poolName + " pool has been shut down"
+                    : "The " + poolName + " pool is full (" + executor.getQueue().size() + " queued)");
+        }
+    }
+
+    /**
+     * Creates the pools, pools of a previous start are shut down first.
+     */
+    public static synchronized void start() {
+        shutdown();
+
+        int cores = Runtime.getRuntime().availableProcessors();
+        int taskThreads = Math.max(1, sharedClass.configUtil.getConfigFromBuffer("TaskThreadPoolSize", 64));
+        int taskQueue = Math.max(1, sharedClass.configUtil.getConfigFromBuffer("TaskThreadPoolQueue", 10000));
+        int loaderThreads = Math.max(1, Math.min(cores, sharedClass.configUtil.getConfigFromBuffer("LoaderThreadPoolSize", 4)));
+
+        ExecutorService virtualTasks = sharedClass.configUtil.getConfigFromBuffer("UseVirtualThreads", true)
+                ? newVirtualThreadExecutor("OpenJS-Task-", ScriptExecutors::countVirtualTask) : null;
+        tasks = virtualTasks != null ? virtualTasks : newPool("tasks", "OpenJS-Task-", taskThreads, taskQueue);
+        loader = newPool("loader", "OpenJS-Loader-", loaderThreads, Integer.MAX_VALUE);
+
+        timer = new ScheduledThreadPoolExecutor(1, namedThreads("OpenJS-Timer-"), new CountingAbortPolicy("timer"));
+        timer.setRemoveOnCancelPolicy(true);
+        rejections.put(timer, (CountingAbortPolicy) timer.getRejectedExecutionHandler());
+        pools.put("timer", timer);
+
+        storage = new ScheduledThreadPoolExecutor(1, namedThreads("OpenJS-Storage-"), new CountingAbortPolicy("storage"));
+        storage.setRemoveOnCancelPolicy(true);
+        rejections.put(storage, (CountingAbortPolicy) storage.getRejectedExecutionHandler());
+        pools.put("storage", storage);
+
+        sharedClass.TaskThreadPool = tasks;
+    }
+
+    public static synchronized void shutdown() {
+        for (ThreadPoolExecutor pool : pools.values()) {
+            pool.shutdown();
+        }
+        if (tasks != null) {
+            tasks.shutdown();
+            tasks = null;
+        }
+        pools.clear();
+        rejections.clear();
+    }
+
+    public static ExecutorService tasks() {
+        return tasks;
+    }
+
+    public static ExecutorService loader() {
+        return loader;
+    }
+
+    /**
+     * A single thread for the file work of the DiskApi, so it runs in order and never competes with itself.
+     */
+    public static ScheduledExecutorService storage() {
+        return storage;
+    }
+
+    /**
+     * Runs a task on the task pool after the given amount of ticks, without occupying a pool thread while waiting.
+     *
+     * @return A future that cancels the task as long as it has not started yet
+     */
+    public static Future<?> delay(Runnable task, long ticks) {
+        return timer.schedule(() -> tasks.execute(task), ticks * 50L, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Creates an executor that starts a named virtual thread per task. The plugin is built for Java 17,
+     * so the Java 21 API is looked up by reflection.
+     *
+     * @param threadPrefix The name of the threads, followed by a counter
+     * @param wrapper Wraps every task before it runs, e.g. to count it
+     * @return The executor or null if the runtime has no virtual threads
+     */
+    public static @Nullable ExecutorService newVirtualThreadExecutor(String threadPrefix, UnaryOperator<Runnable> wrapper) {
+        if (Runtime.version().feature() < 21) {
+            return null;
+        }
+        try {
+            Object builder = Thread.class.getMethod("ofVirtual").invoke(null);
+            Class<?> builderClass = Class.forName("java.lang.Thread$Builder");
+            builder = builderClass.getMethod("name", String.class, long.class).invoke(builder, threadPrefix, 1L);
+            ThreadFactory virtualThreads = (ThreadFactory) builderClass.getMethod("factory").invoke(builder);
+            Method newExecutor = Executors.class.getMethod("newThreadPerTaskExecutor", ThreadFactory.class);
+            return (ExecutorService) newExecutor.invoke(null, (ThreadFactory) runnable -> virtualThreads.newThread(wrapper.apply(runnable)));
+        } catch (ReflectiveOperationException e) {
+            sharedClass.logger.log(Level.WARNING, "Virtual threads are not available, using a thread pool instead: " + e.getMessage(), pluginLogger.ORANGE);
+            return null;
+        }
+    }
+
+    private static Runnable countVirtualTask(Runnable task) {
+        return () -> {
+            activeVirtualTasks.incrementAndGet();
+            try {
+                task.run();
+            } finally {
+                activeVirtualTasks.decrementAndGet();
+                completedVirtualTasks.increment();
+            }
+        };
+    }
+
+    private static ThreadPoolExecutor newPool(String name, String threadPrefix, int threads, int queueCapacity) {
+        CountingAbortPolicy policy = new CountingAbortPolicy(name);
+        ThreadPoolExecutor pool = new ThreadPoolExecutor(threads, threads, 60L, TimeUnit.SECONDS,
+                new LinkedBlockingQueue<>(queueCapacity), namedThreads(threadPrefix), policy);
+        // Idle threads die after a minute, so the bound costs nothing while scripts are idle
+        pool.allowCoreThreadTimeOut(true);
+        rejections.put(pool, policy);
+        pools.put(name, pool);
+        return pool;
+    }
+
+    private static ThreadFactory namedThreads(String prefix) {
+        AtomicInteger counter = new AtomicInteger(1);
+        return runnable -> {
+            Thread thread = new Thread(runnable, prefix + counter.getAndIncrement());
+            thread.setDaemon(true);
+            return thread;
+        };
+    }
+}
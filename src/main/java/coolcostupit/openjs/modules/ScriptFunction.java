@@ -0,0 +1,86 @@
+/*
+ * Copyright (c) 2025 coolcostupit
+ * Licensed under AGPL-3.0
+ * You may not remove this notice or claim this work as your own.
+ */
+
+package coolcostupit.openjs.modules;
+
+import org.graalvm.polyglot.PolyglotException;
+import org.graalvm.polyglot.Value;
+
+import javax.annotation.Nullable;
+
+/**
+ * A script function that has been resolved once when it was registered.
+ * <p>
+ * Calling handlers through {@link javax.script.Invocable#invokeMethod} looks the member up by name and converts
+ * the handler and every argument on each call. A resolved function is executed directly instead, which matters for
+ * handlers of high-frequency events like PlayerMoveEvent. The function is bound to its handler object, so "this"
+ * still refers to the handler inside the function.
+ * <p>
+ * Functions are bound to the context of their script, so they have to be called through the mailbox of the script.
+ */
+public final class ScriptFunction {
+    private final Value function;
+    private final String name;
+
+    private ScriptFunction(Value function, String name) {
+        this.function = function;
+        this.name = name;
+    }
+
+    /**
+     * Resolves a member function of a handler object.
+     *
+     * @param handler The handler object passed from the script
+     * @param memberName The name of the function
+     * @return The resolved function
+     * @throws IllegalArgumentException If the handler has no function with that name
+     */
+    public static ScriptFunction of(Value handler, String memberName) {
+        ScriptFunction function = find(handler, memberName);
+        if (function == null) {
+            throw new IllegalArgumentException("The handler has no function called \"" + memberName + "\"");
+        }
+        return function;
+    }
+
+    /**
+     * Resolves a member function of a handler object, if it exists.
+     *
+     * @param handler The handler object passed from the script
+     * @param memberName The name of the function
+     * @return The resolved function or null if the handler has no function with that name
+     */
+    public static @Nullable ScriptFunction find(Value handler, String memberName) {
+        if (handler == null || handler.isNull() || !handler.hasMember(memberName)) {
+            return null;
+        }
+
+        Value member = handler.getMember(memberName);
+        if (!member.canExecute()) {
+            return null;
+        }
+        if (member.canInvokeMember("bind")) {
+            // Keep "this" pointing to the handler, like it did with invokeMethod
+            member = member.invokeMember("bind", handler);
+        }
+        return new ScriptFunction(member, memberName);
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * Calls the function, the caller has to own the context of the script.
+     *
+     * @param args The arguments, Java objects are passed to the script as they are
+     * @return The return value of the function
+     * @throws PolyglotException If the function threw an error
+     */
+    public Value call(Object... args) {
+        return function.execute(args);
+    }
+}
@@ -0,0 +1,456 @@
+/*
+ * Copyright (c) 2025 coolcostupit
+ * Licensed under AGPL-3.0
+ * You may not remove this notice or claim this work as your own.
+ */
+
+package coolcostupit.openjs.modules;
+
+import coolcostupit.openjs.logging.pluginLogger;
+import org.bukkit.Bukkit;
+
+import javax.annotation.Nullable;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.logging.Level;
+
+/**
+ * The mailbox of a single script. GraalJS contexts can only be entered by one thread at a time,
+ * so every invocation of script code has to go through the mailbox of its script.
+ * <p>
+ * Asynchronous work (spawned tasks, the script body, async timers) is posted into the mailbox and runs
+ * one after another in FIFO order, like on a single-threaded executor backed by the shared task pool.
+ * The queue of a script is limited ("ScriptQueueLimit"), when it is full either the new work is rejected
+ * or the oldest queued work is discarded ("ScriptQueueRejection").
+ * <p>
+ * Synchronous entry points (events, commands, placeholders, packets) have to run on the thread that calls them,
+ * because Bukkit checks thread ownership and the caller waits for the result. They take the ownership of the
+ * context for the duration of the call instead. A caller that already owns the context (e.g. a script firing an
+ * event that it listens to itself) runs directly without waiting.
+ * <p>
+ * Server threads never wait for a busy script, a single blocked script would otherwise cost every tick up to
+ * "ScriptLockTimeout". Their calls are skipped right away and counted, only other threads wait for the context.
+ * The context cannot be shared while a script waits inside of a call (e.g. in task.wait), so everything else
+ * of that script is skipped or queued until the wait is over.
+ * <p>
+ * Every invocation that enters the context is timed by the {@link ScriptWatchdog} of the script.
+ * While the watchdog suspends the script, only critical entry points (commands, cleanup, settling promises) are still run.
+ */
+public class ScriptMailbox {
+    private static final Map<String, ScriptMailbox> mailboxes = new ConcurrentHashMap<>();
+    private static final int TIMEOUT_LOG_INTERVAL = 100;
+
+    private final String scriptName;
+    private final ReentrantLock contextLock = new ReentrantLock();
+    private final Queue<FutureTask<?>> queue = new ConcurrentLinkedQueue<>();
+    private final AtomicBoolean draining = new AtomicBoolean(false);
+    private final AtomicInteger queueDepth = new AtomicInteger();
+    private final AtomicInteger peakQueueDepth = new AtomicInteger();
+    private final LongAdder processed = new LongAdder();
+    private final LongAdder contended = new LongAdder();
+    private final LongAdder timedOut = new LongAdder();
+    private final LongAdder busySkipped = new LongAdder();
+    private final LongAdder rejected = new LongAdder();
+    private final long lockTimeoutMillis;
+    private final int queueLimit;
+    private final boolean discardOldest;
+    private final ScriptWatchdog watchdog;
+    private volatile boolean closed = false;
+
+    static {
+        StatsReporter.register("Script mailboxes", () -> {
+            List<String> lines = new ArrayList<>();
+            for (ScriptMailbox mailbox : mailboxes.values()) {
+                lines.add(mailbox.scriptName + ": queued=" + mailbox.queueDepth.get()
+                        + " peak=" + mailbox.peakQueueDepth.get()
+                        + " processed=" + mailbox.processed.sum()
+                        + " waited=" + mailbox.contended.sum()
+                        + " timeouts=" + mailbox.timedOut.sum()
+                        + " busy=" + mailbox.busySkipped.sum()
+                        + " rejected=" + mailbox.rejected.sum());
+            }
+            if (lines.isEmpty()) {
+                lines.add("There are no running scripts.");
+            }
+            return lines;
+        });
+    }
+
+    private ScriptMailbox(String scriptName) {
+        this.scriptName = scriptName;
+        this.lockTimeoutMillis = sharedClass.configUtil.getConfigFromBuffer("ScriptLockTimeout", 50);
+        this.queueLimit = Math.max(1, sharedClass.configUtil.getConfigFromBuffer("ScriptQueueLimit", 1000));
+        this.discardOldest = "DISCARD_OLDEST".equalsIgnoreCase(sharedClass.configUtil.getConfigFromBuffer("ScriptQueueRejection", "REJECT"));
+        this.watchdog = ScriptWatchdog.open(scriptName);
+    }
+
+    /**
+     * Creates the mailbox of a script, a previous mailbox of the same script gets closed.
+     */
+    public static ScriptMailbox open(String scriptName) {
+        ScriptMailbox mailbox = new ScriptMailbox(scriptName);
+        ScriptMailbox previous = mailboxes.put(scriptName, mailbox);
+        if (previous != null) {
+            previous.shutdown();
+        }
+        return mailbox;
+    }
+
+    /**
+     * Returns the mailbox of a running script.
+     *
+     * @throws IllegalStateException If the script is not running
+     */
+    public static ScriptMailbox of(String scriptName) {
+        ScriptMailbox mailbox = mailboxes.get(scriptName);
+        if (mailbox == null) {
+            throw new IllegalStateException("Script " + scriptName + " is not running");
+        }
+        return mailbox;
+    }
+
+    public static void close(String scriptName) {
+        ScriptMailbox mailbox = mailboxes.remove(scriptName);
+        if (mailbox != null) {
+            mailbox.shutdown();
+        }
+    }
+
+    public String getScriptName() {
+        return scriptName;
+    }
+
+    public int getQueueDepth() {
+        return queueDepth.get();
+    }
+
+    public boolean isClosed() {
+        return closed;
+    }
+
+    public boolean isOwnedByCurrentThread() {
+        return contextLock.isHeldByCurrentThread();
+    }
+
+    public ScriptWatchdog getWatchdog() {
+        return watchdog;
+    }
+
+    /**
+     * Posts asynchronous work into the mailbox, it runs after everything that has been posted before.
+     *
+     * @param handlerName A short description of the work, used for logging
+     * @param task The work to run inside the script context
+     * @return A future that can be used to cancel the work, it is already cancelled if the work has been rejected
+     */
+    public Future<?> post(String handlerName, Runnable task) {
+        return post(handlerName, task, null);
+    }
+
+    /**
+     * Like {@link #post(String, Runnable)}.
+     *
+     * @param whenDone Runs once the work has finished, failed, been cancelled or been rejected
+     */
+    public Future<?> post(String handlerName, Runnable task, @Nullable Runnable whenDone) {
+        FutureTask<?> futureTask = whenDone == null
+                ? new FutureTask<>(() -> runOwned(handlerName, false, task), null)
+                : new FutureTask<>(() -> runOwned(handlerName, false, task), null) {
+                    @Override
+                    protected void done() {
+                        whenDone.run();
+                    }
+                };
+        if (closed) {
+            futureTask.cancel(false);
+            return futureTask;
+        }
+        if (queueDepth.get() >= queueLimit) {
+            onQueueFull(handlerName);
+            if (!discardOldest) {
+                futureTask.cancel(false);
+                return futureTask;
+            }
+            FutureTask<?> oldest = queue.poll();
+            if (oldest != null) {
+                queueDepth.decrementAndGet();
+                oldest.cancel(false);
+            }
+        }
+
+        enqueue(futureTask);
+        return futureTask;
+    }
+
+    /**
+     * Like {@link #post(String, Runnable)}, but neither the queue limit nor the watchdog skips it.
+     * Used to settle promises, which have to be settled exactly once, no matter how busy the script is.
+     */
+    public Future<?> postCritical(String handlerName, Runnable task) {
+        FutureTask<?> futureTask = new FutureTask<>(() -> runOwned(handlerName, true, task), null);
+        if (closed) {
+            futureTask.cancel(false);
+            return futureTask;
+        }
+        enqueue(futureTask);
+        return futureTask;
+    }
+
+    private void enqueue(FutureTask<?> futureTask) {
+        queue.add(futureTask);
+        peakQueueDepth.accumulateAndGet(queueDepth.incrementAndGet(), Math::max);
+        scheduleDrain();
+    }
+
+    /**
+     * Runs script code on the calling thread while owning the context.
+     * On a server thread it is skipped right away if another thread owns the context.
+     *
+     * @param handlerName A short description of the handler, used for logging
+     * @param task The code to run inside the script context
+     * @return False if the context could not be acquired in time or the mailbox has been closed
+     */
+    public boolean runExclusive(String handlerName, Runnable task) {
+        return call(handlerName, false, false, () -> {
+            task.run();
+            return Boolean.TRUE;
+        }, Boolean.FALSE);
+    }
+
+    /**
+     * Like {@link #runExclusive}, but never waits for the context. Used by work that can just as well run later,
+     * instead of blocking its thread for up to "ScriptLockTimeout".
+     *
+     * @return False if another thread owns the context right now, the task has not run then.
+     * A closed mailbox or a suspended script skips the task like {@link #runExclusive} and returns true
+     */
+    public boolean tryRunExclusive(String handlerName, Runnable task) {
+        if (contextLock.isHeldByCurrentThread() || closed || watchdog.isSuspended()) {
+            runExclusive(handlerName, task);
+            return true;
+        }
+        if (!contextLock.tryLock()) {
+            contended.increment();
+            return false;
+        }
+        callLocked(handlerName, () -> {
+            task.run();
+            return Boolean.TRUE;
+        }, Boolean.FALSE);
+        return true;
+    }
+
+    /**
+     * Like {@link #runExclusive}, but the watchdog never skips it. Used for commands.
+     */
+    public boolean runCritical(String handlerName, Runnable task) {
+        return call(handlerName, true, false, () -> {
+            task.run();
+            return Boolean.TRUE;
+        }, Boolean.FALSE);
+    }
+
+    /**
+     * Like {@link #runCritical}, but it also waits up to "ScriptLockTimeout" on a server thread.
+     * Used for cleanup code that has to run once, the work of an unloading script has been interrupted
+     * just before and releases the context shortly.
+     */
+    public boolean runCleanup(String handlerName, Runnable task) {
+        return call(handlerName, true, true, () -> {
+            task.run();
+            return Boolean.TRUE;
+        }, Boolean.FALSE);
+    }
+
+    /**
+     * Runs a scheduled callback. Server threads must not be blocked by queued script work and often need the
+     * script to run on them (e.g. to modify the world), so they enter the context directly.
+     * Every other thread hands the callback over to the mailbox.
+     *
+     * @param handlerName A short description of the callback, used for logging
+     * @param task The code to run inside the script context
+     */
+    public void execute(String handlerName, Runnable task) {
+        if (Bukkit.isPrimaryThread()) {
+            runExclusive(handlerName, task);
+        } else {
+            post(handlerName, task);
+        }
+    }
+
+    /**
+     * Calls script code on the calling thread while owning the context.
+     *
+     * @param handlerName A short description of the handler, used for logging
+     * @param task The code to run inside the script context
+     * @param fallback The value to return if the context could not be acquired
+     * @return The result of the task or the fallback value
+     */
+    public <T> T callExclusive(String handlerName, Callable<T> task, T fallback) {
+        return call(handlerName, false, false, task, fallback);
+    }
+
+    /**
+     * Like {@link #callExclusive}, but the watchdog never skips it. Used for tab-completion.
+     */
+    public <T> T callCritical(String handlerName, Callable<T> task, T fallback) {
+        return call(handlerName, true, false, task, fallback);
+    }
+
+    private <T> T call(String handlerName, boolean critical, boolean waitOnServerThread, Callable<T> task, T fallback) {
+        // Nested calls are part of the outer call, which already has been checked and is timed as a whole
+        if (contextLock.isHeldByCurrentThread()) {
+            return callOwned(task, fallback);
+        }
+        if (closed) {
+            return fallback;
+        }
+        if (!critical && watchdog.isSuspended()) {
+            watchdog.onSkipped();
+            return fallback;
+        }
+
+        if (!contextLock.tryLock()) {
+            contended.increment();
+            if (!waitOnServerThread && Bukkit.isPrimaryThread()) {
+                onBusy(handlerName);
+                return fallback;
+            }
+            try {
+                if (!contextLock.tryLock(lockTimeoutMillis, TimeUnit.MILLISECONDS)) {
+                    onTimeout(handlerName);
+                    return fallback;
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return fallback;
+            }
+        }
+        return callLocked(handlerName, task, fallback);
+    }
+
+    // The context lock has to be held, it is released at the end
+    private <T> T callLocked(String handlerName, Callable<T> task, T fallback) {
+        long start = System.nanoTime();
+        try {
+            return closed ? fallback : callOwned(task, fallback);
+        } finally {
+            contextLock.unlock();
+            watchdog.record(handlerName, System.nanoTime() - start, Bukkit.isPrimaryThread());
+        }
+    }
+
+    private <T> T callOwned(Callable<T> task, T fallback) {
+        try {
+            return task.call();
+        } catch (Exception e) {
+            sharedClass.logger.scriptlog(Level.WARNING, scriptName, e.getMessage(), pluginLogger.RED);
+            return fallback;
+        } finally {
+            processed.increment();
+        }
+    }
+
+    private void runOwned(String handlerName, boolean critical, Runnable task) {
+        try {
+            contextLock.lockInterruptibly();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return;
+        }
+
+        if (closed || (!critical && watchdog.isSuspended())) {
+            contextLock.unlock();
+            if (!closed) {
+                watchdog.onSkipped();
+            }
+            return;
+        }
+
+        long start = System.nanoTime();
+        try {
+            task.run();
+        } catch (Exception e) {
+            sharedClass.logger.scriptlog(Level.WARNING, scriptName, handlerName + " failed: " + e.getMessage(), pluginLogger.RED);
+        } finally {
+            processed.increment();
+            contextLock.unlock();
+            // Posted work runs on the shared thread pool, it never counts towards the budget of a tick
+            watchdog.record(handlerName, System.nanoTime() - start, false);
+        }
+    }
+
+    private void scheduleDrain() {
+        if (closed || !draining.compareAndSet(false, true)) {
+            return;
+        }
+        try {
+            sharedClass.TaskThreadPool.execute(this::drain);
+        } catch (RejectedExecutionException e) {
+            draining.set(false);
+        }
+    }
+
+    private void drain() {
+        try {
+            FutureTask<?> next;
+            while (!closed && (next = queue.poll()) != null) {
+                queueDepth.decrementAndGet();
+                next.run();
+                // Clear a cancellation interrupt so it does not leak into the next task
+                Thread.interrupted();
+            }
+        } finally {
+            draining.set(false);
+        }
+
+        // Something may have been posted after the last poll, but before draining was released
+        if (!closed && !queue.isEmpty()) {
+            scheduleDrain();
+        }
+    }
+
+    private void onTimeout(String handlerName) {
+        timedOut.increment();
+        long count = timedOut.sum();
+        if (count == 1 || count % TIMEOUT_LOG_INTERVAL == 0) {
+            sharedClass.logger.scriptlog(Level.WARNING, scriptName, "Skipped " + handlerName + " because the script was busy for more than "
+                    + lockTimeoutMillis + "ms (" + count + " times so far). Avoid blocking calls like task.wait inside of scripts that handle events.", pluginLogger.ORANGE);
+        }
+    }
+
+    private void onBusy(String handlerName) {
+        busySkipped.increment();
+        long count = busySkipped.sum();
+        if (count == 1 || count % TIMEOUT_LOG_INTERVAL == 0) {
+            sharedClass.logger.scriptlog(Level.WARNING, scriptName, "Skipped " + handlerName + " because the script was busy, server threads do not wait for scripts ("
+                    + count + " times so far). A skipped event is not cancelled by the script. Use \"await task.sleep(seconds)\" instead of task.wait in scripts that handle events.", pluginLogger.ORANGE);
+        }
+    }
+
+    private void onQueueFull(String handlerName) {
+        rejected.increment();
+        long count = rejected.sum();
+        if (count == 1 || count % TIMEOUT_LOG_INTERVAL == 0) {
+            sharedClass.logger.scriptlog(Level.WARNING, scriptName, (discardOldest ? "Discarded the oldest queued work for " : "Rejected ")
+                    + handlerName + " because " + queueLimit + " tasks are already queued (" + count + " times so far).", pluginLogger.ORANGE);
+        }
+    }
+
+    private void shutdown() {
+        closed = true;
+        watchdog.close();
+        FutureTask<?> pending;
+        while ((pending = queue.poll()) != null) {
+            queueDepth.decrementAndGet();
+            pending.cancel(false);
+        }
+    }
+}
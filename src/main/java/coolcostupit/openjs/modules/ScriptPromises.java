@@ -0,0 +1,144 @@
+/*
+ * Copyright (c) 2025 coolcostupit
+ * Licensed under AGPL-3.0
+ * You may not remove this notice or claim this work as your own.
+ */
+
+package coolcostupit.openjs.modules;
+
+import coolcostupit.openjs.logging.pluginLogger;
+import org.bukkit.entity.Entity;
+import org.graalvm.polyglot.PolyglotException;
+import org.graalvm.polyglot.Value;
+
+import javax.annotation.Nullable;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.logging.Level;
+
+/**
+ * Resolves the promises of task.sleep, task.nextTick, task.onMain and task.onEntity.
+ * <p>
+ * All pending promises wait in the {@link TimerWheel}, which is driven by the single tick listener of the
+ * {@link TickDriver}. An await never creates a scheduler task of its own (except for task.onEntity on Folia,
+ * where only the scheduler of the entity can run code on its region). The resolve function is called inside
+ * the mailbox of the script, GraalJS then runs the continuation of the awaiting async function right away
+ * on the same thread. task.onMain goes through the {@link MainThreadQueue}, so the server thread never waits
+ * for a busy script, the resolve is carried over to the next tick instead.
+ * <p>
+ * A promise settles exactly once: if it cannot be resolved (the queue of the script is full, the watchdog
+ * suspended the script or the entity of task.onEntity has been removed) it is rejected instead.
+ * Pending promises are registered tasks of their script and join its current task group. Like any other task,
+ * a cancelled one (e.g. by unloading the script or group.cancel()) is dropped with its timer and never settles.
+ */
+public class ScriptPromises {
+    public enum Target {
+        // Resolved in the mailbox of the script, off the server thread
+        ASYNC,
+        // Resolved on the server thread (on Folia the global region thread)
+        MAIN,
+        // Resolved on the thread that owns the entity
+        ENTITY
+    }
+
+    private static class PendingPromise {
+        private final ScriptMailbox mailbox;
+        private final ScriptFunction resolve;
+        private final @Nullable ScriptFunction reject;
+        private final Target target;
+        private final @Nullable Entity entity;
+        private final int taskId;
+        private final AtomicBoolean settled = new AtomicBoolean(false);
+
+        private PendingPromise(ScriptMailbox mailbox, ScriptFunction resolve, @Nullable ScriptFunction reject, Target target, @Nullable Entity entity, int taskId) {
+            this.mailbox = mailbox;
+            this.resolve = resolve;
+            this.reject = reject;
+            this.target = target;
+            this.entity = entity;
+            this.taskId = taskId;
+        }
+    }
+
+    /**
+     * @param scriptName The script that awaits
+     * @param resolver The resolve function of the promise, as member "f", and optionally a function as member "r"
+     *                 that rejects the promise with the reason it gets called with
+     * @param ticks After how many ticks the promise is resolved, at least 1
+     * @param target Where the promise is resolved
+     * @param entity The entity for {@link Target#ENTITY}
+     * @throws IllegalArgumentException If the resolver is not a function or the entity is missing
+     */
+    public static void schedule(String scriptName, Value resolver, long ticks, Target target, @Nullable Entity entity) {
+        if (target == Target.ENTITY && entity == null) {
+            throw new IllegalArgumentException("task.onEntity needs an entity");
+        }
+        ScriptMailbox mailbox = ScriptMailbox.of(scriptName);
+        ScriptFunction resolve = ScriptFunction.of(resolver, "f");
+        TaskRegistry.Task task = TaskRegistry.reserve(TaskRegistry.TaskType.TIMER);
+        PendingPromise promise = new PendingPromise(mailbox, resolve, ScriptFunction.find(resolver, "r"), target, entity, task.getId());
+        TaskRegistry.assign(task.getId(), scriptName);
+        task.attach(TimerWheel.schedule(ticks, 0, () -> resolve(promise)));
+    }
+
+    private static void resolve(PendingPromise promise) {
+        Runnable resolveTask = () -> settle(promise, promise.resolve);
+
+        switch (promise.target) {
+            case ASYNC:
+                promise.mailbox.post("task promise", resolveTask, () -> checkSettled(promise));
+                break;
+            case MAIN:
+                MainThreadQueue.submit(promise.mailbox, "task.onMain", resolveTask, () -> checkSettled(promise));
+                break;
+            case ENTITY:
+                if (FoliaSupport.isFolia()) {
+                    // Without the retired callback the promise of a removed entity would never settle
+                    FoliaSupport.runEntityTask(sharedClass.plugin, promise.entity, () -> {
+                        if (promise.mailbox.tryRunExclusive("task.onEntity", resolveTask)) {
+                            checkSettled(promise);
+                        } else {
+                            // The script is busy, the entity thread does not wait for it but tries again on its next tick
+                            resolve(promise);
+                        }
+                    }, () -> reject(promise, "the entity has been removed"));
+                } else {
+                    // Without Folia the server thread owns every entity
+                    MainThreadQueue.submit(promise.mailbox, "task.onEntity", resolveTask, () -> checkSettled(promise));
+                }
+                break;
+        }
+    }
+
+    // Called once a resolve has been handed over, it may have been rejected by the queue limit or skipped by the watchdog
+    private static void checkSettled(PendingPromise promise) {
+        if (promise.settled.get() || !TaskRegistry.isLive(promise.taskId)) {
+            return;
+        }
+        reject(promise, promise.mailbox.getWatchdog().isSuspended()
+                ? "the script has been suspended by the watchdog"
+                : "the script has too much queued work");
+    }
+
+    private static void reject(PendingPromise promise, String reason) {
+        promise.mailbox.postCritical("task promise", () -> {
+            if (promise.reject != null) {
+                settle(promise, promise.reject, reason);
+            } else {
+                settle(promise, promise.resolve);
+            }
+        });
+    }
+
+    private static void settle(PendingPromise promise, ScriptFunction function, Object... args) {
+        // A resolve that was already handed over when the task got cancelled is dropped as well
+        if (!TaskRegistry.isLive(promise.taskId) || !promise.settled.compareAndSet(false, true)) {
+            return;
+        }
+        TaskRegistry.complete(promise.taskId);
+        try {
+            function.call(args);
+        } catch (PolyglotException e) {
+            sharedClass.logger.scriptlog(Level.WARNING, promise.mailbox.getScriptName(), e.getMessage(), pluginLogger.RED);
+        }
+    }
+}
@@ -0,0 +1,218 @@
+/*
+ * Copyright (c) 2025 coolcostupit
+ * Licensed under AGPL-3.0
+ * You may not remove this notice or claim this work as your own.
+ */
+
+package coolcostupit.openjs.modules;
+
+import coolcostupit.openjs.logging.pluginLogger;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Consumer;
+import java.util.logging.Level;
+
+/**
+ * Measures how long the handlers of a script run and how much server thread time the script uses per tick.
+ * <p>
+ * Every script has a budget per tick ("ScriptTickBudget"). A script that keeps exceeding it gets logged,
+ * its non-critical handlers (events, tasks, placeholders, packets) get skipped for a while, or it gets unloaded,
+ * depending on "ScriptWatchdogAction". Commands and cleanup code are never skipped.
+ * The timings of every handler are listed in /oj stats, so a slow tick can be attributed to a script.
+ */
+public class ScriptWatchdog {
+    private static final Map<String, ScriptWatchdog> watchdogs = new ConcurrentHashMap<>();
+    private static final Runnable tickListener = ScriptWatchdog::checkBudgets;
+    private static final int SLOWEST_HANDLERS = 3;
+    private static volatile Consumer<String> unloader = scriptName -> {};
+
+    private final String scriptName;
+    private final long budgetNanos;
+    private final int strikeLimit;
+    private final long cooldownTicks;
+    private final Action action;
+    private final Map<String, HandlerTiming> timings = new ConcurrentHashMap<>();
+    private final AtomicLong tickNanos = new AtomicLong();
+    private final LongAdder overBudgetTicks = new LongAdder();
+    private final LongAdder skipped = new LongAdder();
+    private volatile long worstTickNanos = 0;
+    private volatile long suspendedUntilTick = 0;
+    // Only touched by the tick listener
+    private int strikes = 0;
+    private long cooldownUntilTick = 0;
+
+    public enum Action {
+        LOG,
+        SKIP,
+        UNLOAD
+    }
+
+    private static class HandlerTiming {
+        private final String handlerName;
+        private final LongAdder calls = new LongAdder();
+        private final LongAdder totalNanos = new LongAdder();
+        private final AtomicLong maxNanos = new AtomicLong();
+
+        private HandlerTiming(String handlerName) {
+            this.handlerName = handlerName;
+        }
+    }
+
+    static {
+        StatsReporter.register("Script timings", () -> {
+            List<String> lines = new ArrayList<>();
+            for (ScriptWatchdog watchdog : watchdogs.values()) {
+                lines.add(watchdog.scriptName + ": budget=" + (watchdog.budgetNanos > 0 ? StatsReporter.formatNanos(watchdog.budgetNanos) : "off")
+                        + " worstTick=" + StatsReporter.formatNanos(watchdog.worstTickNanos)
+                        + " overBudget=" + watchdog.overBudgetTicks.sum()
+                        + " skipped=" + watchdog.skipped.sum()
+                        + (watchdog.isSuspended() ? " (suspended)" : ""));
+                for (HandlerTiming timing : watchdog.slowestHandlers()) {
+                    long calls = timing.calls.sum();
+                    lines.add("  " + timing.handlerName + ": calls=" + calls
+                            + " avg=" + StatsReporter.formatNanos(calls == 0 ? 0 : timing.totalNanos.sum() / calls)
+                            + " max=" + StatsReporter.formatNanos(timing.maxNanos.get()));
+                }
+            }
+            if (lines.isEmpty()) {
+                lines.add("There are no running scripts.");
+            }
+            return lines;
+        });
+    }
+
+    private ScriptWatchdog(String scriptName) {
+        this.scriptName = scriptName;
+        this.budgetNanos = sharedClass.configUtil.getConfigFromBuffer("ScriptTickBudget", 10) * 1_000_000L;
+        this.strikeLimit = Math.max(1, sharedClass.configUtil.getConfigFromBuffer("ScriptWatchdogTicks", 20));
+        this.cooldownTicks = Math.max(1, sharedClass.configUtil.getConfigFromBuffer("ScriptWatchdogCooldown", 600));
+
+        String actionName = sharedClass.configUtil.getConfigFromBuffer("ScriptWatchdogAction", "LOG");
+        Action parsed;
+        try {
+            parsed = Action.valueOf(actionName.toUpperCase(Locale.ROOT));
+        } catch (IllegalArgumentException e) {
+            sharedClass.logger.log(Level.WARNING, "Unknown ScriptWatchdogAction " + actionName + ", using LOG", pluginLogger.ORANGE);
+            parsed = Action.LOG;
+        }
+        this.action = parsed;
+    }
+
+    /**
+     * Starts checking the budgets every tick.
+     *
+     * @param scriptUnloader Unloads a script, used by the UNLOAD action
+     */
+    public static void start(Consumer<String> scriptUnloader) {
+        unloader = scriptUnloader;
+        TickDriver.removeTickListener(tickListener);
+        TickDriver.addTickListener(tickListener);
+    }
+
+    public static void stop() {
+        TickDriver.removeTickListener(tickListener);
+    }
+
+    /**
+     * Creates the watchdog of a script, it is owned by the mailbox of the script.
+     */
+    static ScriptWatchdog open(String scriptName) {
+        ScriptWatchdog watchdog = new ScriptWatchdog(scriptName);
+        watchdogs.put(scriptName, watchdog);
+        return watchdog;
+    }
+
+    void close() {
+        watchdogs.remove(scriptName, this);
+    }
+
+    /**
+     * @return True while the non-critical handlers of the script are skipped
+     */
+    public boolean isSuspended() {
+        return suspendedUntilTick > TickDriver.currentTick();
+    }
+
+    void onSkipped() {
+        skipped.increment();
+    }
+
+    /**
+     * @param handlerName The handler that ran
+     * @param nanos How long it ran
+     * @param onServerThread If the time counts towards the budget of the current tick
+     */
+    void record(String handlerName, long nanos, boolean onServerThread) {
+        HandlerTiming timing = timings.computeIfAbsent(handlerName, HandlerTiming::new);
+        timing.calls.increment();
+        timing.totalNanos.add(nanos);
+        timing.maxNanos.accumulateAndGet(nanos, Math::max);
+        if (onServerThread) {
+            tickNanos.addAndGet(nanos);
+        }
+    }
+
+    private List<HandlerTiming> slowestHandlers() {
+        return timings.values().stream()
+                .sorted(Comparator.comparingLong((HandlerTiming timing) -> timing.totalNanos.sum()).reversed())
+                .limit(SLOWEST_HANDLERS)
+                .toList();
+    }
+
+    private static void checkBudgets() {
+        long now = TickDriver.currentTick();
+        for (ScriptWatchdog watchdog : watchdogs.values()) {
+            watchdog.check(now);
+        }
+    }
+
+    private void check(long now) {
+        long used = tickNanos.getAndSet(0);
+        if (used > worstTickNanos) {
+            worstTickNanos = used;
+        }
+        if (budgetNanos <= 0) {
+            return;
+        }
+
+        // Ticks within the budget lower the count again, so a single slow tick (e.g. on load) is not punished
+        if (used > budgetNanos) {
+            overBudgetTicks.increment();
+            strikes++;
+        } else if (strikes > 0) {
+            strikes--;
+        }
+        if (strikes < strikeLimit || now < cooldownUntilTick) {
+            return;
+        }
+        strikes = 0;
+        cooldownUntilTick = now + cooldownTicks;
+
+        List<HandlerTiming> slowest = slowestHandlers();
+        String message = "Exceeded its budget of " + StatsReporter.formatNanos(budgetNanos) + " per tick " + strikeLimit
+                + " times (last tick " + StatsReporter.formatNanos(used) + ")"
+                + (slowest.isEmpty() ? "" : ", slowest handler: " + slowest.get(0).handlerName);
+        switch (action) {
+            case LOG:
+                sharedClass.logger.scriptlog(Level.WARNING, scriptName, message + ". See /oj stats for details.", pluginLogger.ORANGE);
+                break;
+            case SKIP:
+                suspendedUntilTick = now + cooldownTicks;
+                sharedClass.logger.scriptlog(Level.WARNING, scriptName, message + ". Its events, tasks, placeholders and packets are skipped for "
+                        + cooldownTicks + " ticks.", pluginLogger.ORANGE);
+                break;
+            case UNLOAD:
+                sharedClass.logger.scriptlog(Level.SEVERE, scriptName, message + ". The script has been unloaded, use /oj reload "
+                        + scriptName + " to load it again.", pluginLogger.RED);
+                unloader.accept(scriptName);
+                break;
+        }
+    }
+}
@@ -0,0 +1,306 @@
+/*
+ * Copyright (c) 2025 coolcostupit
+ * Licensed under AGPL-3.0
+ * You may not remove this notice or claim this work as your own.
+ */
+
+package coolcostupit.openjs.modules;
+
+import coolcostupit.openjs.foliascheduler.AsyncSchedulerImplementation;
+import coolcostupit.openjs.foliascheduler.FoliaCompatibility;
+import coolcostupit.openjs.foliascheduler.GlobalSchedulerImplementation;
+import coolcostupit.openjs.foliascheduler.ServerImplementation;
+import org.bukkit.Location;
+import org.bukkit.World;
+import org.bukkit.entity.Entity;
+import org.bukkit.plugin.Plugin;
+import org.bukkit.scheduler.BukkitScheduler;
+
+import javax.annotation.Nullable;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Consumer;
+
+/**
+ * The scheduler of the server, picked once when the plugin is enabled.
+ * <p>
+ * Every method schedules the task, registers it in the {@link TaskRegistry} and returns its id.
+ * The Folia and Bukkit variants are separate classes, so a call goes straight to the scheduler of the platform
+ * instead of checking for Folia and looking the scheduler classes up by reflection every time.
+ */
+public abstract class ServerScheduler {
+
+    /**
+     * @param folia If the Folia schedulers should be used, see {@link FoliaSupport#isFolia()}
+     */
+    public static ServerScheduler create(Plugin plugin, boolean folia) {
+        return folia ? new OnFolia(plugin) : new OnBukkit(plugin);
+    }
+
+    /**
+     * Runs the task once after the delay, on the server thread (on Folia asynchronously).
+     */
+    public abstract int runLater(Runnable function, long delay);
+
+    /**
+     * Runs the task on the thread that owns the entity (on Bukkit the server thread).
+     */
+    public int runOnEntity(Entity entity, Runnable function) {
+        return runOnEntity(entity, function, null);
+    }
+
+    /**
+     * Runs the task on the thread that owns the entity (on Bukkit the server thread).
+     *
+     * @param retired Called instead of the task if the entity is removed before it runs (only on Folia)
+     */
+    public abstract int runOnEntity(Entity entity, Runnable function, @Nullable Runnable retired);
+
+    /**
+     * Runs the task on the thread that owns the location (on Bukkit the server thread).
+     */
+    public abstract int runOnRegion(Location location, Runnable function);
+
+    public abstract int runOnRegionLater(Location location, Runnable function, long delay);
+
+    public abstract int runOnRegionRepeating(Location location, Runnable function, long delay, long period);
+
+    /**
+     * Runs the function for many locations with as few tasks as possible. The locations are grouped by area,
+     * every group runs in one task on the thread that owns it (on Bukkit all of them run in one task on the server thread).
+     *
+     * @param function Called once per task with the locations it owns
+     * @return The ids of the tasks
+     */
+    public abstract List<Integer> runOnRegions(Collection<Location> locations, Consumer<List<Location>> function);
+
+    /**
+     * Runs the task once after the delay, off the server thread.
+     */
+    public abstract int runAsyncLater(Runnable function, long delay);
+
+    public abstract int runAsync(Runnable function);
+
+    /**
+     * Runs the task on the server thread (on Folia the global region thread).
+     */
+    public abstract int runGlobal(Runnable function);
+
+    /**
+     * Repeats the task on the server thread (on Folia asynchronously). The timer runs on the {@link TimerWheel}
+     * and is spread over its period by {@link RepeatPhases}.
+     *
+     * @param exact True to keep the runs aligned to the delay
+     */
+    public abstract int runRepeating(Runnable function, long delay, long period, boolean exact);
+
+    /**
+     * Repeats the task on the server thread (on Folia the global region thread).
+     */
+    public abstract int runGlobalRepeating(Runnable function, long delay, long period);
+
+    private static final class OnFolia extends ServerScheduler {
+        // Folia hands regions out in sections of 16x16 chunks by default, a section is always owned by one region
+        private static final int SECTION_SHIFT = 4;
+        private final ServerImplementation server;
+        private final GlobalSchedulerImplementation global;
+        private final AsyncSchedulerImplementation async;
+
+        private OnFolia(Plugin plugin) {
+            this.server = new FoliaCompatibility(plugin).getServerImplementation();
+            this.global = server.global();
+            this.async = server.async();
+        }
+
+        @Override
+        public int runLater(Runnable function, long delay) {
+            TaskRegistry.Task task = TaskRegistry.reserve(TaskRegistry.TaskType.FOLIA);
+            task.attach(async.runDelayed(task.completing(function), delay));
+            return task.getId();
+        }
+
+        @Override
+        public int runOnEntity(Entity entity, Runnable function, @Nullable Runnable retired) {
+            TaskRegistry.Task task = TaskRegistry.reserve(TaskRegistry.TaskType.FOLIA);
+            int taskId = task.getId();
+            // A removed entity never runs the task, the scheduler calls the retired callback instead
+            task.attach(server.entity(entity).run(task.completing(function), () -> {
+                TaskRegistry.complete(taskId);
+                if (retired != null) {
+                    retired.run();
+                }
+            }));
+            return taskId;
+        }
+
+        @Override
+        public int runOnRegion(Location location, Runnable function) {
+            TaskRegistry.Task task = TaskRegistry.reserve(TaskRegistry.TaskType.FOLIA);
+            task.attach(server.region(location).run(task.completing(function)));
+            return task.getId();
+        }
+
+        @Override
+        public int runOnRegionLater(Location location, Runnable function, long delay) {
+            TaskRegistry.Task task = TaskRegistry.reserve(TaskRegistry.TaskType.FOLIA);
+            task.attach(server.region(location).runDelayed(task.completing(function), Math.max(1L, delay)));
+            return task.getId();
+        }
+
+        @Override
+        public int runOnRegionRepeating(Location location, Runnable function, long delay, long period) {
+            return TaskRegistry.register(server.region(location).runAtFixedRate(function, Math.max(1L, delay), period), TaskRegistry.TaskType.FOLIA);
+        }
+
+        @Override
+        public List<Integer> runOnRegions(Collection<Location> locations, Consumer<List<Location>> function) {
+            List<Integer> taskIds = new ArrayList<>();
+            for (List<Location> group : groupBy(locations, SECTION_SHIFT).values()) {
+                taskIds.add(runOnRegion(group.get(0), () -> {
+                    // The section size can be configured on Folia, locations of another region are sent to that region
+                    List<Location> owned = new ArrayList<>();
+                    List<Location> foreign = new ArrayList<>();
+                    for (Location location : group) {
+                        (server.isOwnedByCurrentRegion(location) ? owned : foreign).add(location);
+                    }
+                    if (!owned.isEmpty()) {
+                        function.accept(owned);
+                    }
+                    for (List<Location> chunk : groupBy(foreign, 0).values()) {
+                        runOnRegion(chunk.get(0), () -> function.accept(chunk));
+                    }
+                }));
+            }
+            return taskIds;
+        }
+
+        // Groups the locations by world and by squares of 2^shift chunks
+        private static Map<String, List<Location>> groupBy(Collection<Location> locations, int shift) {
+            Map<String, List<Location>> groups = new LinkedHashMap<>();
+            for (Location location : locations) {
+                World world = location.getWorld();
+                if (world == null) {
+                    throw new IllegalArgumentException("Location world cannot be null");
+                }
+                String key = world.getName() + ":" + ((location.getBlockX() >> 4) >> shift) + ":" + ((location.getBlockZ() >> 4) >> shift);
+                groups.computeIfAbsent(key, k -> new ArrayList<>()).add(location);
+            }
+            return groups;
+        }
+
+        @Override
+        public int runAsyncLater(Runnable function, long delay) {
+            // The timer waits instead of a sleeping pool thread
+            TaskRegistry.Task task = TaskRegistry.reserve(TaskRegistry.TaskType.THREADPOOL);
+            task.attach(ScriptExecutors.delay(task.completing(function), delay));
+            return task.getId();
+        }
+
+        @Override
+        public int runAsync(Runnable function) {
+            TaskRegistry.Task task = TaskRegistry.reserve(TaskRegistry.TaskType.THREADPOOL);
+            task.attach(ScriptExecutors.tasks().submit(task.completing(function)));
+            return task.getId();
+        }
+
+        @Override
+        public int runGlobal(Runnable function) {
+            TaskRegistry.Task task = TaskRegistry.reserve(TaskRegistry.TaskType.FOLIA);
+            task.attach(global.run(task.completing(function)));
+            return task.getId();
+        }
+
+        @Override
+        public int runRepeating(Runnable function, long delay, long period, boolean exact) {
+            // The wheel only hands the task over, it runs on the task pool like on the async scheduler
+            return TaskRegistry.register(RepeatPhases.schedule(delay, period, function, exact, run -> ScriptExecutors.tasks().execute(run)),
+                    TaskRegistry.TaskType.TIMER);
+        }
+
+        @Override
+        public int runGlobalRepeating(Runnable function, long delay, long period) {
+            return TaskRegistry.register(global.runAtFixedRate(function, Math.max(1L, delay), period), TaskRegistry.TaskType.FOLIA);
+        }
+    }
+
+    private static final class OnBukkit extends ServerScheduler {
+        private final Plugin plugin;
+        private final BukkitScheduler scheduler;
+
+        private OnBukkit(Plugin plugin) {
+            this.plugin = plugin;
+            this.scheduler = plugin.getServer().getScheduler();
+        }
+
+        @Override
+        public int runLater(Runnable function, long delay) {
+            TaskRegistry.Task task = TaskRegistry.reserve(TaskRegistry.TaskType.BUKKIT);
+            task.attach(scheduler.runTaskLater(plugin, task.completing(function), delay));
+            return task.getId();
+        }
+
+        @Override
+        public int runOnEntity(Entity entity, Runnable function, @Nullable Runnable retired) {
+            return runGlobal(function);
+        }
+
+        @Override
+        public int runOnRegion(Location location, Runnable function) {
+            return runGlobal(function);
+        }
+
+        @Override
+        public int runOnRegionLater(Location location, Runnable function, long delay) {
+            return runLater(function, delay);
+        }
+
+        @Override
+        public int runOnRegionRepeating(Location location, Runnable function, long delay, long period) {
+            return runRepeating(function, delay, period, false);
+        }
+
+        @Override
+        public List<Integer> runOnRegions(Collection<Location> locations, Consumer<List<Location>> function) {
+            if (locations.isEmpty()) {
+                return List.of();
+            }
+            List<Location> all = new ArrayList<>(locations);
+            return List.of(runGlobal(() -> function.accept(all)));
+        }
+
+        @Override
+        public int runAsyncLater(Runnable function, long delay) {
+            TaskRegistry.Task task = TaskRegistry.reserve(TaskRegistry.TaskType.BUKKIT);
+            task.attach(scheduler.runTaskLaterAsynchronously(plugin, task.completing(function), delay));
+            return task.getId();
+        }
+
+        @Override
+        public int runAsync(Runnable function) {
+            TaskRegistry.Task task = TaskRegistry.reserve(TaskRegistry.TaskType.BUKKIT);
+            task.attach(scheduler.runTaskAsynchronously(plugin, task.completing(function)));
+            return task.getId();
+        }
+
+        @Override
+        public int runGlobal(Runnable function) {
+            TaskRegistry.Task task = TaskRegistry.reserve(TaskRegistry.TaskType.BUKKIT);
+            task.attach(scheduler.runTask(plugin, task.completing(function)));
+            return task.getId();
+        }
+
+        @Override
+        public int runRepeating(Runnable function, long delay, long period, boolean exact) {
+            // The wheel is driven on the server thread, so the task runs there like a Bukkit timer
+            return TaskRegistry.register(RepeatPhases.schedule(delay, period, function, exact), TaskRegistry.TaskType.TIMER);
+        }
+
+        @Override
+        public int runGlobalRepeating(Runnable function, long delay, long period) {
+            return TaskRegistry.register(scheduler.runTaskTimer(plugin, function, delay, period), TaskRegistry.TaskType.BUKKIT);
+        }
+    }
+}
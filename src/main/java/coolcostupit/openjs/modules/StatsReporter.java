@@ -0,0 +1,49 @@
+/*
+ * Copyright (c) 2025 coolcostupit
+ * Licensed under AGPL-3.0
+ * You may not remove this notice or claim this work as your own.
+ */
+
+package coolcostupit.openjs.modules;
+
+import coolcostupit.openjs.utility.chatColors;
+import org.bukkit.command.CommandSender;
+
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Supplier;
+
+/**
+ * Collects runtime statistics of the different subsystems and prints them for "/oj stats".
+ * Subsystems register a section once and return fresh lines every time the command is used.
+ */
+public class StatsReporter {
+    private static final Map<String, Supplier<List<String>>> sections = new LinkedHashMap<>();
+
+    public static synchronized void register(String sectionName, Supplier<List<String>> section) {
+        sections.put(sectionName, section);
+    }
+
+    public static synchronized void report(CommandSender sender) {
+        if (sections.isEmpty()) {
+            sender.sendMessage(chatColors.GRAY + "There are no statistics available yet.");
+            return;
+        }
+
+        for (Map.Entry<String, Supplier<List<String>>> entry : sections.entrySet()) {
+            sender.sendMessage(chatColors.LIGHT_PURPLE + entry.getKey() + ":");
+            try {
+                for (String line : entry.getValue().get()) {
+                    sender.sendMessage(chatColors.GRAY + " - " + line);
+                }
+            } catch (Exception e) {
+                sender.sendMessage(chatColors.RED + " - Failed to collect statistics: " + e.getMessage());
+            }
+        }
+    }
+
+    public static String formatNanos(long nanos) {
+        return String.format("%.2fms", nanos / 1_000_000.0);
+    }
+}
@@ -0,0 +1,204 @@
+/*
+ * Copyright (c) 2025 coolcostupit
+ * Licensed under AGPL-3.0
+ * You may not remove this notice or claim this work as your own.
+ */
+
+package coolcostupit.openjs.modules;
+
+import javax.annotation.Nullable;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Supplier;
+
+/**
+ * A group of tasks of one script, created with task.group().
+ * <p>
+ * Every task that is started while a group is current (inside group.run or one of the group methods) joins the group,
+ * and so does every task that a child of the group starts while it runs. The group only knows its live children,
+ * so cancelling it costs one cancel per child. Waiters of join are released once the group has no live children left,
+ * a repeating child keeps the group alive until it is cancelled.
+ */
+public class TaskGroup {
+    private static final ThreadLocal<TaskGroup> current = new ThreadLocal<>();
+    // Groups with live children, only used for the stats
+    private static final Set<TaskGroup> active = ConcurrentHashMap.newKeySet();
+    private static final AtomicInteger nextGroupId = new AtomicInteger(1);
+
+    private final int id;
+    private final String scriptName;
+    private final String name;
+    private final Set<Integer> children = ConcurrentHashMap.newKeySet();
+    // Guarded by this
+    private final List<Runnable> joinWaiters = new ArrayList<>();
+    private final LongAdder started = new LongAdder();
+    private final LongAdder finished = new LongAdder();
+    private final LongAdder cancelledChildren = new LongAdder();
+    private final LongAdder runNanos = new LongAdder();
+    private volatile boolean cancelled = false;
+
+    static {
+        StatsReporter.register("Task groups", () -> {
+            List<String> lines = new ArrayList<>();
+            for (TaskGroup group : active) {
+                lines.add(group.scriptName + "/" + group.getName() + ": live=" + group.children.size()
+                        + " started=" + group.started.sum() + " finished=" + group.finished.sum()
+                        + " cancelled=" + group.cancelledChildren.sum()
+                        + " run time=" + StatsReporter.formatNanos(group.runNanos.sum()));
+            }
+            if (lines.isEmpty()) {
+                lines.add("No group has live tasks.");
+            }
+            return lines;
+        });
+    }
+
+    private TaskGroup(String scriptName, String name) {
+        this.id = nextGroupId.getAndIncrement();
+        this.scriptName = scriptName;
+        this.name = name;
+    }
+
+    public static TaskGroup create(String scriptName, String name) {
+        return new TaskGroup(scriptName, name);
+    }
+
+    /**
+     * @return The group that tasks started on this thread join, or null
+     */
+    public static @Nullable TaskGroup current() {
+        return current.get();
+    }
+
+    /**
+     * Runs the code with the group as the current group, the time it takes counts as run time of the group.
+     */
+    public static <T> T callAs(@Nullable TaskGroup group, Supplier<T> code) {
+        if (group == null) {
+            return code.get();
+        }
+        TaskGroup previous = current.get();
+        current.set(group);
+        long start = System.nanoTime();
+        try {
+            return code.get();
+        } finally {
+            group.runNanos.add(System.nanoTime() - start);
+            current.set(previous);
+        }
+    }
+
+    /**
+     * Binds the task to the current group, so the tasks it starts join the group as well.
+     */
+    public static Runnable bind(Runnable task) {
+        TaskGroup group = current.get();
+        if (group == null) {
+            return task;
+        }
+        return () -> callAs(group, () -> {
+            task.run();
+            return null;
+        });
+    }
+
+    public int getId() {
+        return id;
+    }
+
+    public String getScriptName() {
+        return scriptName;
+    }
+
+    public String getName() {
+        return name.isEmpty() ? "group-" + id : name;
+    }
+
+    public int size() {
+        return children.size();
+    }
+
+    public boolean isCancelled() {
+        return cancelled;
+    }
+
+    /**
+     * @return False if the group has been cancelled, the task has to be cancelled then
+     */
+    boolean add(int taskId) {
+        if (cancelled) {
+            return false;
+        }
+        if (children.add(taskId)) {
+            started.increment();
+            active.add(this);
+        }
+        return true;
+    }
+
+    void remove(int taskId, boolean wasCancelled) {
+        if (!children.remove(taskId)) {
+            return;
+        }
+        (wasCancelled ? cancelledChildren : finished).increment();
+        if (children.isEmpty()) {
+            releaseWaiters();
+        }
+    }
+
+    /**
+     * Cancels every live child, tasks that are started for the group afterwards are cancelled right away.
+     *
+     * @return How many tasks have been cancelled
+     */
+    public int cancel() {
+        cancelled = true;
+        int count = 0;
+        for (int taskId : children) {
+            if (TaskRegistry.cancel(taskId)) {
+                count++;
+            }
+        }
+        // Children that are still being added complete the join once they are removed
+        if (children.isEmpty()) {
+            releaseWaiters();
+        }
+        return count;
+    }
+
+    /**
+     * Runs the callback once the group has no live children, right away if it has none now.
+     */
+    public void join(Runnable whenDone) {
+        synchronized (this) {
+            if (!children.isEmpty()) {
+                joinWaiters.add(whenDone);
+                return;
+            }
+        }
+        whenDone.run();
+    }
+
+    private void releaseWaiters() {
+        List<Runnable> waiters;
+        synchronized (this) {
+            // A child may have been added between the check and the lock
+            if (!children.isEmpty()) {
+                return;
+            }
+            active.remove(this);
+            if (joinWaiters.isEmpty()) {
+                return;
+            }
+            waiters = new ArrayList<>(joinWaiters);
+            joinWaiters.clear();
+        }
+        for (Runnable waiter : waiters) {
+            waiter.run();
+        }
+    }
+}
@@ -0,0 +1,278 @@
+/*
+ * Copyright (c) 2025 coolcostupit
+ * Licensed under AGPL-3.0
+ * You may not remove this notice or claim this work as your own.
+ */
+
+package coolcostupit.openjs.modules;
+
+import coolcostupit.openjs.foliascheduler.TaskImplementation;
+import org.bukkit.scheduler.BukkitTask;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Keeps track of every task that has been scheduled through {@link FoliaSupport} or the task api.
+ * <p>
+ * One-shot tasks remove themselves when they complete, repeating tasks stay until they are cancelled.
+ * Tasks of a script are indexed per script, so cancelling a single task or all tasks of a script never
+ * has to search a list.
+ */
+public final class TaskRegistry {
+    private static final Map<Integer, Task> tasks = new ConcurrentHashMap<>();
+    private static final Map<String, Set<Integer>> scriptTasks = new ConcurrentHashMap<>();
+    private static final AtomicInteger nextTaskId = new AtomicInteger(1);
+    private static final LongAdder completed = new LongAdder();
+    private static final LongAdder cancelled = new LongAdder();
+
+    public enum TaskType {
+        BUKKIT,
+        FOLIA,
+        THREADPOOL,
+        TIMER,
+        QUEUE
+    }
+
+    static {
+        StatsReporter.register("Tasks", () -> {
+            List<String> lines = new ArrayList<>();
+            lines.add("live=" + tasks.size() + " completed=" + completed.sum() + " cancelled=" + cancelled.sum());
+            for (Map.Entry<String, Set<Integer>> entry : scriptTasks.entrySet()) {
+                lines.add(entry.getKey() + ": " + entry.getValue().size() + " live");
+            }
+            return lines;
+        });
+    }
+
+    private TaskRegistry() {
+    }
+
+    /**
+     * A registered task, the handle of the scheduler is attached once the task has been scheduled.
+     */
+    public static final class Task {
+        private final int id;
+        private final TaskType type;
+        private volatile String scriptName;
+        private volatile TaskGroup group;
+        // Guarded by this
+        private Object handle;
+        private boolean cancelled = false;
+
+        private Task(int id, TaskType type) {
+            this.id = id;
+            this.type = type;
+        }
+
+        public int getId() {
+            return id;
+        }
+
+        /**
+         * Attaches the handle of the scheduler, it is cancelled right away if the task has been cancelled meanwhile.
+         */
+        public void attach(Object handle) {
+            boolean cancelNow;
+            synchronized (this) {
+                this.handle = handle;
+                cancelNow = cancelled;
+            }
+            if (cancelNow) {
+                cancelHandle(type, handle);
+            }
+        }
+
+        /**
+         * Wraps the work of a one-shot task, so the task is removed from the registry once it has run.
+         */
+        public Runnable completing(Runnable function) {
+            return () -> {
+                try {
+                    function.run();
+                } finally {
+                    complete(id);
+                }
+            };
+        }
+
+        private void cancel() {
+            Object current;
+            synchronized (this) {
+                cancelled = true;
+                current = handle;
+            }
+            if (current != null) {
+                cancelHandle(type, current);
+            }
+        }
+    }
+
+    /**
+     * Reserves an id for a task that is about to be scheduled.
+     */
+    public static Task reserve(TaskType type) {
+        Task task = new Task(nextTaskId.getAndIncrement(), type);
+        tasks.put(task.id, task);
+        return task;
+    }
+
+    /**
+     * Registers a task that has already been scheduled and only ends when it gets cancelled.
+     */
+    public static int register(Object handle, TaskType type) {
+        Task task = reserve(type);
+        task.attach(handle);
+        return task.id;
+    }
+
+    /**
+     * Assigns a task to a script, so it is cancelled with the script. Nothing happens if the task already completed.
+     * If a {@link TaskGroup} of the script is current, the task joins it as well.
+     */
+    public static void assign(int taskId, String scriptName) {
+        Task task = tasks.get(taskId);
+        if (task == null) {
+            return;
+        }
+        task.scriptName = scriptName;
+        scriptTasks.compute(scriptName, (name, ids) -> {
+            Set<Integer> set = ids != null ? ids : ConcurrentHashMap.newKeySet();
+            set.add(taskId);
+            return set;
+        });
+        // The task may have completed before it was indexed
+        if (!tasks.containsKey(taskId)) {
+            unindex(scriptName, taskId);
+            return;
+        }
+
+        TaskGroup group = TaskGroup.current();
+        if (group == null || !group.getScriptName().equals(scriptName)) {
+            return;
+        }
+        if (!group.add(taskId)) {
+            cancel(taskId);
+            return;
+        }
+        task.group = group;
+        if (!tasks.containsKey(taskId)) {
+            group.remove(taskId, false);
+        }
+    }
+
+    public static void complete(int taskId) {
+        Task task = tasks.remove(taskId);
+        if (task != null) {
+            completed.increment();
+            unindex(task.scriptName, taskId);
+            if (task.group != null) {
+                task.group.remove(taskId, false);
+            }
+        }
+    }
+
+    /**
+     * @return False if the task does not exist (anymore)
+     */
+    public static boolean cancel(int taskId) {
+        Task task = tasks.remove(taskId);
+        if (task == null) {
+            return false;
+        }
+        unindex(task.scriptName, taskId);
+        cancelled.increment();
+        task.cancel();
+        if (task.group != null) {
+            task.group.remove(taskId, true);
+        }
+        return true;
+    }
+
+    /**
+     * Cancels a task only if it belongs to the script.
+     *
+     * @return False if the script has no live task with that id
+     */
+    public static boolean cancel(String scriptName, int taskId) {
+        Task task = tasks.get(taskId);
+        if (task == null || !scriptName.equals(task.scriptName)) {
+            return false;
+        }
+        return cancel(taskId);
+    }
+
+    /**
+     * @return How many tasks of the script have been cancelled
+     */
+    public static int cancelAll(String scriptName) {
+        Set<Integer> ids = scriptTasks.remove(scriptName);
+        if (ids == null) {
+            return 0;
+        }
+        int count = 0;
+        for (int taskId : ids) {
+            if (cancel(taskId)) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    public static void cancelAllScripts() {
+        for (String scriptName : scriptTasks.keySet()) {
+            cancelAll(scriptName);
+        }
+    }
+
+    /**
+     * @return False once the task has completed or been cancelled
+     */
+    public static boolean isLive(int taskId) {
+        return tasks.containsKey(taskId);
+    }
+
+    public static int getLiveTaskCount(String scriptName) {
+        Set<Integer> ids = scriptTasks.get(scriptName);
+        return ids == null ? 0 : ids.size();
+    }
+
+    private static void unindex(String scriptName, int taskId) {
+        if (scriptName == null) {
+            return;
+        }
+        scriptTasks.computeIfPresent(scriptName, (name, ids) -> {
+            ids.remove(taskId);
+            return ids.isEmpty() ? null : ids;
+        });
+    }
+
+    private static void cancelHandle(TaskType type, Object handle) {
+        try {
+            switch (type) {
+                case FOLIA:
+                    ((TaskImplementation<?>) handle).cancel();
+                    break;
+                case BUKKIT:
+                    ((BukkitTask) handle).cancel();
+                    break;
+                case THREADPOOL:
+                    ((Future<?>) handle).cancel(true);
+                    break;
+                case TIMER:
+                    ((TimerWheel.Timer) handle).cancel();
+                    break;
+                case QUEUE:
+                    ((MainThreadQueue.Entry) handle).cancel();
+                    break;
+            }
+        } catch (Exception ignored) {
+        }
+    }
+}
@@ -0,0 +1,64 @@
+/*
+ * Copyright (c) 2025 coolcostupit
+ * Licensed under AGPL-3.0
+ * You may not remove this notice or claim this work as your own.
+ */
+
+package coolcostupit.openjs.modules;
+
+import coolcostupit.openjs.logging.pluginLogger;
+import org.bukkit.plugin.java.JavaPlugin;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.logging.Level;
+
+/**
+ * One repeating task that runs every server tick (on Folia on the global region thread).
+ * Subsystems that need to do something once per tick register a tick listener here,
+ * instead of every one of them scheduling its own task.
+ */
+public class TickDriver {
+    private static final List<Runnable> tickListeners = new CopyOnWriteArrayList<>();
+    private static volatile long currentTick = 0;
+    private static int taskId = -1;
+
+    public static synchronized void start(JavaPlugin plugin) {
+        if (taskId == -1) {
+            taskId = FoliaSupport.ScheduleGlobalRepeatingTask(plugin, TickDriver::tick, 1L, 1L);
+        }
+    }
+
+    public static synchronized void stop() {
+        if (taskId != -1) {
+            FoliaSupport.CancelTask(taskId);
+            taskId = -1;
+        }
+    }
+
+    /**
+     * The number of ticks since the plugin has been enabled.
+     */
+    public static long currentTick() {
+        return currentTick;
+    }
+
+    public static void addTickListener(Runnable listener) {
+        tickListeners.add(listener);
+    }
+
+    public static void removeTickListener(Runnable listener) {
+        tickListeners.remove(listener);
+    }
+
+    private static void tick() {
+        currentTick++;
+        for (Runnable listener : tickListeners) {
+            try {
+                listener.run();
+            } catch (Exception e) {
+                sharedClass.logger.log(Level.WARNING, "Tick listener failed: " + e.getMessage(), pluginLogger.ORANGE);
+            }
+        }
+    }
+}
@@ -0,0 +1,274 @@
+/*
+ * Copyright (c) 2025 coolcostupit
+ * Licensed under AGPL-3.0
+ * You may not remove this notice or claim this work as your own.
+ */
+
+package coolcostupit.openjs.modules;
+
+import coolcostupit.openjs.logging.pluginLogger;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.logging.Level;
+
+/**
+ * Holds the timers of task.delay and task.repeat in a hierarchical timing wheel, which is advanced by the {@link TickDriver}.
+ * <p>
+ * There are 4 wheels of 64 slots, the first one has a slot per tick, every following one a slot per round of the
+ * previous wheel (64, 4096 and 262144 ticks). A timer is put into the wheel that covers its remaining delay and
+ * moves down a wheel every time the slot it is in comes up, until it fires from the first wheel.
+ * Inserting and cancelling a timer only links or unlinks it in the list of its slot, waiting timers cost
+ * nothing per tick, no matter how many there are.
+ */
+public class TimerWheel {
+    private static final int SLOT_BITS = 6;
+    private static final int SLOTS = 1 << SLOT_BITS;
+    private static final int SLOT_MASK = SLOTS - 1;
+    private static final int WHEELS = 4;
+    // Longer delays are parked in the last wheel and placed again once their slot comes up
+    private static final long MAX_SPAN = (1L << (SLOT_BITS * WHEELS)) - 1;
+
+    private static final ReentrantLock lock = new ReentrantLock();
+    private static final Timer[][] slots = new Timer[WHEELS][SLOTS];
+    private static final Runnable tickListener = TimerWheel::advance;
+    private static final LongAdder fired = new LongAdder();
+    private static final LongAdder cancelled = new LongAdder();
+    // The last tick that has been processed, guarded by the lock
+    private static long now = 0;
+    private static int pending = 0;
+
+    static {
+        for (int wheel = 0; wheel < WHEELS; wheel++) {
+            for (int slot = 0; slot < SLOTS; slot++) {
+                Timer head = new Timer(null, 0);
+                head.prev = head;
+                head.next = head;
+                slots[wheel][slot] = head;
+            }
+        }
+
+        StatsReporter.register("Timer wheel", () -> List.of("timers=" + pending + " fired=" + fired.sum() + " cancelled=" + cancelled.sum()));
+    }
+
+    /**
+     * A scheduled timer, it is linked into the list of the slot it waits in.
+     */
+    public static class Timer {
+        private final Runnable task;
+        private final long period;
+        private long deadline;
+        private Timer prev;
+        private Timer next;
+        private volatile boolean done = false;
+        private Runnable onCancel;
+
+        private Timer(Runnable task, long period) {
+            this.task = task;
+            this.period = period;
+        }
+
+        /**
+         * Stops the timer, a timer that is firing right now still finishes its current run.
+         */
+        public void cancel() {
+            lock.lock();
+            try {
+                if (done) {
+                    return;
+                }
+                done = true;
+                if (next != null) {
+                    unlink(this);
+                    pending--;
+                }
+            } finally {
+                lock.unlock();
+            }
+            cancelled.increment();
+            if (onCancel != null) {
+                onCancel.run();
+            }
+        }
+
+        public boolean isDone() {
+            return done;
+        }
+
+        public long getPeriod() {
+            return period;
+        }
+
+        /**
+         * Moves the next run of a waiting timer back, a repeating timer keeps the new phase afterwards.
+         */
+        public void postpone(long ticks) {
+            lock.lock();
+            try {
+                if (done || next == null || ticks <= 0) {
+                    return;
+                }
+                unlink(this);
+                deadline += ticks;
+                insert(this);
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        // Set before the timer can be cancelled, so it is never missed
+        void setOnCancel(Runnable onCancel) {
+            this.onCancel = onCancel;
+        }
+    }
+
+    public static void start() {
+        lock.lock();
+        try {
+            now = TickDriver.currentTick();
+        } finally {
+            lock.unlock();
+        }
+        TickDriver.removeTickListener(tickListener);
+        TickDriver.addTickListener(tickListener);
+    }
+
+    public static void stop() {
+        TickDriver.removeTickListener(tickListener);
+        List<Timer> stopped = new ArrayList<>();
+        lock.lock();
+        try {
+            for (Timer[] wheel : slots) {
+                for (Timer head : wheel) {
+                    while (head.next != head) {
+                        Timer timer = head.next;
+                        unlink(timer);
+                        timer.done = true;
+                        stopped.add(timer);
+                    }
+                }
+            }
+            pending = 0;
+        } finally {
+            lock.unlock();
+        }
+        for (Timer timer : stopped) {
+            if (timer.onCancel != null) {
+                timer.onCancel.run();
+            }
+        }
+    }
+
+    /**
+     * @return The last tick that the wheel has processed
+     */
+    public static long now() {
+        lock.lock();
+        try {
+            return now;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * @param delayTicks Ticks until the first run, at least 1
+     * @param periodTicks Ticks between runs, 0 or less for a timer that runs once
+     * @param task Runs on the thread that drives the ticks, it should hand longer work over to a script mailbox
+     * @return The timer, used to cancel it
+     */
+    public static Timer schedule(long delayTicks, long periodTicks, Runnable task) {
+        Timer timer = new Timer(task, Math.max(0L, periodTicks));
+        lock.lock();
+        try {
+            timer.deadline = now + Math.max(1L, delayTicks);
+            insert(timer);
+            pending++;
+        } finally {
+            lock.unlock();
+        }
+        return timer;
+    }
+
+    private static void advance() {
+        List<Timer> due = new ArrayList<>();
+        lock.lock();
+        try {
+            long target = TickDriver.currentTick();
+            while (now < target) {
+                now++;
+                // Higher wheels move their timers down first, the ones that are due end up in the current slot
+                for (int wheel = 1; wheel < WHEELS && (now & ((1L << (SLOT_BITS * wheel)) - 1)) == 0; wheel++) {
+                    cascade(wheel, (int) ((now >>> (SLOT_BITS * wheel)) & SLOT_MASK));
+                }
+
+                Timer head = slots[0][(int) (now & SLOT_MASK)];
+                while (head.next != head) {
+                    Timer timer = head.next;
+                    unlink(timer);
+                    if (timer.deadline > now) {
+                        insert(timer);
+                        continue;
+                    }
+                    due.add(timer);
+                    if (timer.period > 0) {
+                        timer.deadline = now + timer.period;
+                        insert(timer);
+                    } else {
+                        pending--;
+                    }
+                }
+            }
+        } finally {
+            lock.unlock();
+        }
+
+        for (Timer timer : due) {
+            // The timer may have been cancelled by a timer that ran before it
+            if (timer.done) {
+                continue;
+            }
+            if (timer.period <= 0) {
+                timer.done = true;
+            }
+            fired.increment();
+            try {
+                timer.task.run();
+            } catch (Exception e) {
+                sharedClass.logger.log(Level.WARNING, "Timer failed: " + e.getMessage(), pluginLogger.ORANGE);
+            }
+        }
+    }
+
+    private static void cascade(int wheel, int slot) {
+        Timer head = slots[wheel][slot];
+        while (head.next != head) {
+            Timer timer = head.next;
+            unlink(timer);
+            insert(timer);
+        }
+    }
+
+    private static void insert(Timer timer) {
+        long delay = Math.min(Math.max(0L, timer.deadline - now), MAX_SPAN);
+        long placement = now + delay;
+        int wheel = 0;
+        while (wheel < WHEELS - 1 && delay >= (1L << (SLOT_BITS * (wheel + 1)))) {
+            wheel++;
+        }
+        Timer head = slots[wheel][(int) ((placement >>> (SLOT_BITS * wheel)) & SLOT_MASK)];
+        timer.prev = head.prev;
+        timer.next = head;
+        head.prev.next = timer;
+        head.prev = timer;
+    }
+
+    private static void unlink(Timer timer) {
+        timer.prev.next = timer.next;
+        timer.next.prev = timer.prev;
+        timer.prev = null;
+        timer.next = null;
+    }
+}
@@ -8,19 +8,31 @@ package coolcostupit.openjs.modules;
 
 import coolcostupit.openjs.logging.pluginLogger;
 import org.bukkit.Bukkit;
+import org.bukkit.Location;
 import org.bukkit.entity.Entity;
+import org.bukkit.event.EventPriority;
+import org.bukkit.event.Listener;
+import org.bukkit.event.server.PluginEnableEvent;
 import org.bukkit.plugin.Plugin;
 import org.bukkit.plugin.PluginManager;
+import org.graalvm.polyglot.PolyglotException;
+import org.graalvm.polyglot.Value;
 import org.jetbrains.annotations.NotNull;
 
 import javax.script.Invocable;
 import javax.script.ScriptEngine;
-import javax.script.ScriptException;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.Array;
+import java.lang.reflect.Method;
 import java.lang.reflect.Proxy;
 import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
 import java.util.logging.Level;
 
 public class scriptTaskerApi {
@@ -28,13 +40,16 @@ public class scriptTaskerApi {
     private final @NotNull PluginManager pluginManager;
     private final pluginLogger Logger;
     private static final Map<Object, ListenerEntry> listenerCleanupMap = new HashMap<>();
+    private final Map<String, CompletableFuture<Void>> pluginWaiters = new ConcurrentHashMap<>();
+    // Scripts that have been told once that task.wait is deprecated
+    private final Set<String> deprecatedWaiters = ConcurrentHashMap.newKeySet();
 
     private static class ListenerEntry {
         public final String scriptName;
-        public final Object cleanup;
+        public final ScriptFunction cleanup;
         public final ScriptEngine scriptEngine;
 
-        public ListenerEntry(String scriptName, ScriptEngine scriptEngine, Object cleanup) {
+        public ListenerEntry(String scriptName, ScriptEngine scriptEngine, ScriptFunction cleanup) {
             this.scriptName = scriptName;
             this.cleanup = cleanup;
             this.scriptEngine = scriptEngine;
@@ -45,8 +60,19 @@ public class scriptTaskerApi {
         this.ScriptWrapper = scriptWrapper;
         this.pluginManager = Bukkit.getPluginManager();
         this.Logger = sharedClass.logger;
+
+        // Completes task.waitForPlugin calls, so they do not have to poll the plugin
+        pluginManager.registerEvent(PluginEnableEvent.class, new Listener() {}, EventPriority.MONITOR, (listener, event) -> {
+            if (event instanceof PluginEnableEvent enableEvent) {
+                CompletableFuture<Void> enabled = pluginWaiters.remove(enableEvent.getPlugin().getName());
+                if (enabled != null) {
+                    enabled.complete(null);
+                }
+            }
+        }, sharedClass.plugin);
     }
 
+    @Deprecated
     public Boolean wait(String scriptName, ScriptEngine scriptEngine, Number seconds) {
         double sec = seconds.doubleValue();
 
@@ -60,10 +86,22 @@ public class scriptTaskerApi {
             );
         }
 
+        // Deprecated: a GraalJS context stays entered while the script sits in a host call, so the wait cannot hand
+        // the context over. Events of the script are skipped and its tasks wait behind it until the wait is over
+        if (deprecatedWaiters.add(scriptName)) {
+            Logger.log(
+                    Level.WARNING,
+                    "[" + scriptName + "] task.wait is deprecated, it keeps the whole script busy while it waits: its events are skipped "
+                            + "and its tasks have to wait. Use \"await task.sleep(seconds)\" instead, which lets them run in the meantime.",
+                    pluginLogger.ORANGE
+            );
+        }
+
         long millis = (long) (sec * 1000);
         if (millis < 0) millis = 0;
 
         try {
+            // The script keeps its context for the whole sleep, no matter which kind of thread sleeps
             Thread.sleep(millis);
         } catch (InterruptedException e) {
             Thread.currentThread().interrupt();
@@ -75,15 +113,7 @@ public class scriptTaskerApi {
     }
 
     public void waitForScript(String scriptName) {
-        while (!ScriptWrapper.isJavascriptFileRunning(scriptName)) {
-            try {
-                //noinspection BusyWait
-                Thread.sleep(100);
-            } catch (InterruptedException e) {
-                Thread.currentThread().interrupt();
-                break;
-            }
-        }
+        await(ScriptWrapper.whenRunning(scriptName));
     }
 
     public void waitForPlugin(String pluginName, String scriptName) {
@@ -98,80 +128,170 @@ public class scriptTaskerApi {
             return; // Already loaded
         }
 
-        while (!plugin.isEnabled()) {
-            try {
-                //noinspection BusyWait
-                Thread.sleep(100);
-            } catch (InterruptedException e) {
-                Thread.currentThread().interrupt();
-                break;
-            }
+        CompletableFuture<Void> enabled = pluginWaiters.computeIfAbsent(plugin.getName(), name -> new CompletableFuture<>());
+        // Checked again after the future has been published, the plugin may have been enabled meanwhile
+        if (plugin.isEnabled()) {
+            pluginWaiters.remove(plugin.getName(), enabled);
+            enabled.complete(null);
+            return;
         }
+        await(enabled);
     }
 
-    public int spawn(String scriptName, ScriptEngine scriptEngine, Object handler) {
-        Runnable task = () -> {
-            try {
-                ((Invocable) scriptEngine).invokeMethod(handler, "f");
-            } catch (ScriptException | NoSuchMethodException e) {
-                Logger.scriptlog(Level.WARNING, scriptName, e.getMessage(), pluginLogger.RED);
-            }
-        };
-        int taskId = FoliaSupport.runTask(sharedClass.plugin, task);
-        ScriptWrapper.scriptTasksMap.computeIfAbsent(scriptName, k -> new ArrayList<>()).add(Integer.valueOf(taskId));
+    // Parks the thread (a virtual thread releases its carrier) until the future completes
+    private static void await(CompletableFuture<Void> future) {
+        try {
+            future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (ExecutionException ignored) {
+        }
+    }
+
+    public int spawn(String scriptName, ScriptEngine scriptEngine, Value handler) {
+        Runnable task = invokeHandler(scriptName, scriptEngine, handler);
+        // Spawned tasks are asynchronous anyway, so they are queued behind the other work of the script
+        TaskRegistry.Task spawned = TaskRegistry.reserve(TaskRegistry.TaskType.THREADPOOL);
+        int taskId = spawned.getId();
+        TaskRegistry.assign(taskId, scriptName);
+        spawned.attach(ScriptMailbox.of(scriptName).post("task.spawn", task, () -> TaskRegistry.complete(taskId)));
 
         return taskId;
     }
 
-    public int entitySchedule(String scriptName, ScriptEngine scriptEngine, Entity entity, Object handler) {
-        Runnable task = () -> {
-            try {
-                ((Invocable) scriptEngine).invokeMethod(handler, "f");
-            } catch (ScriptException | NoSuchMethodException e) {
-                Logger.scriptlog(Level.WARNING, scriptName, e.getMessage(), pluginLogger.RED);
-            }
-        };
-        int taskId = FoliaSupport.runEntityTask(sharedClass.plugin, entity, task);
-        ScriptWrapper.scriptTasksMap.computeIfAbsent(scriptName, k -> new ArrayList<>()).add(Integer.valueOf(taskId));
+    public int entitySchedule(String scriptName, ScriptEngine scriptEngine, Entity entity, Value handler) {
+        Runnable task = invokeHandler(scriptName, scriptEngine, handler);
+        ScriptMailbox mailbox = ScriptMailbox.of(scriptName);
+        int taskId = FoliaSupport.runEntityTask(sharedClass.plugin, entity, () -> mailbox.execute("task.entitySchedule", task));
+        TaskRegistry.assign(taskId, scriptName);
 
         return taskId;
     }
 
-    public int main(String scriptName, ScriptEngine scriptEngine, Object handler) {
-        Runnable task = () -> {
-            try {
-                ((Invocable) scriptEngine).invokeMethod(handler, "f");
-            } catch (ScriptException | NoSuchMethodException e) {
-                Logger.scriptlog(Level.WARNING, scriptName, e.getMessage(), pluginLogger.RED);
+    public int region(String scriptName, ScriptEngine scriptEngine, Location location, Value handler) {
+        Runnable task = invokeHandler(scriptName, scriptEngine, handler);
+        ScriptMailbox mailbox = ScriptMailbox.of(scriptName);
+        int taskId = FoliaSupport.runRegionTask(sharedClass.plugin, location, () -> mailbox.execute("task.region", task));
+        TaskRegistry.assign(taskId, scriptName);
+
+        return taskId;
+    }
+
+    public int regionDelay(String scriptName, ScriptEngine scriptEngine, Location location, Number Delay, Value handler) {
+        double sec = Delay.doubleValue();
+
+        if (sec <= 0) return 0;
+        long ticks = (long) (sec * 20); // Convert seconds to ticks
+
+        Runnable task = invokeHandler(scriptName, scriptEngine, handler);
+        ScriptMailbox mailbox = ScriptMailbox.of(scriptName);
+        int taskId = FoliaSupport.DelayRegionTask(sharedClass.plugin, location, () -> mailbox.execute("task.regionDelay", task), ticks);
+        TaskRegistry.assign(taskId, scriptName);
+
+        return taskId;
+    }
+
+    public int regionRepeat(String scriptName, ScriptEngine scriptEngine, Location location, Number Delay, Number Period, Value handler) {
+        double delaySec = Delay.doubleValue();
+        double periodSec = Period.doubleValue();
+
+        if (delaySec < 0) {
+            Logger.log(Level.WARNING, "[" + scriptName + "] Invalid region repeat delay/period values: delay=" + delaySec + ", period=" + periodSec, pluginLogger.RED);
+            return 0;
+        }
+
+        long delayTicks = (long) (delaySec * 20);   // Delay before first run
+        long periodTicks = (long) (periodSec * 20); // Interval between runs
+
+        Runnable task = invokeHandler(scriptName, scriptEngine, handler);
+        ScriptMailbox mailbox = ScriptMailbox.of(scriptName);
+        int taskId = FoliaSupport.ScheduleRegionRepeatingTask(sharedClass.plugin, location, () -> mailbox.execute("task.regionRepeat", task), delayTicks, Math.max(1L, periodTicks));
+        TaskRegistry.assign(taskId, scriptName);
+
+        return taskId;
+    }
+
+    /**
+     * Calls the handler once per location, on the thread that owns the location.
+     * Locations close to each other share a task, so a batch of thousands of blocks only needs a few tasks.
+     *
+     * @param locations A script array of locations
+     * @return The ids of the tasks
+     */
+    public int[] regionBatch(String scriptName, ScriptEngine scriptEngine, Value locations, Value handler) {
+        if (!locations.hasArrayElements()) {
+            throw new IllegalArgumentException("task.regionBatch needs an array of locations");
+        }
+        List<Location> batch = new ArrayList<>((int) locations.getArraySize());
+        for (long i = 0; i < locations.getArraySize(); i++) {
+            batch.add(locations.getArrayElement(i).as(Location.class));
+        }
+
+        ScriptFunction function = ScriptFunction.of(handler, "f");
+        ScriptMailbox mailbox = ScriptMailbox.of(scriptName);
+        TaskGroup group = TaskGroup.current();
+        List<Integer> taskIds = FoliaSupport.runRegionTasks(sharedClass.plugin, batch, owned -> mailbox.execute("task.regionBatch", () -> TaskGroup.callAs(group, () -> {
+            for (Location location : owned) {
+                try {
+                    function.call(location);
+                } catch (PolyglotException e) {
+                    Logger.scriptlog(Level.WARNING, scriptName, e.getMessage(), pluginLogger.RED);
+                }
             }
-        };
-        int taskId = FoliaSupport.runTaskSynchronously(sharedClass.plugin, task);
-        ScriptWrapper.scriptTasksMap.computeIfAbsent(scriptName, k -> new ArrayList<>()).add(Integer.valueOf(taskId));
+            return null;
+        })));
+
+        int[] result = new int[taskIds.size()];
+        for (int i = 0; i < result.length; i++) {
+            result[i] = taskIds.get(i);
+            TaskRegistry.assign(result[i], scriptName);
+        }
+        return result;
+    }
+
+    public int main(String scriptName, ScriptEngine scriptEngine, Value handler) {
+        Runnable task = invokeHandler(scriptName, scriptEngine, handler);
+        ScriptMailbox mailbox = ScriptMailbox.of(scriptName);
+        // Queued for the next tick instead of a scheduler task per call, see MainThreadQueue
+        int taskId = MainThreadQueue.submit(mailbox, "task.main", task);
+        TaskRegistry.assign(taskId, scriptName);
 
         return taskId;
     }
 
-    public int delay(String scriptName, ScriptEngine scriptEngine, Number Delay, Object handler) {
+    public int delay(String scriptName, ScriptEngine scriptEngine, Number Delay, Value handler) {
         double sec = Delay.doubleValue();
 
         if (sec <= 0) return 0;
         long ticks = (long) (sec * 20); // Convert seconds to ticks
 
-        Runnable task = () -> {
-            try {
-                ((Invocable) scriptEngine).invokeMethod(handler, "f");
-            } catch (ScriptException | NoSuchMethodException e) {
-                Logger.scriptlog(Level.WARNING, scriptName, e.getMessage(), pluginLogger.RED);
+        Runnable task = invokeHandler(scriptName, scriptEngine, handler);
+
+        ScriptMailbox mailbox = ScriptMailbox.of(scriptName);
+        // Delays have always run asynchronously, so the timer only hands the task over to the mailbox
+        TaskRegistry.Task delayed = TaskRegistry.reserve(TaskRegistry.TaskType.TIMER);
+        int taskId = delayed.getId();
+        TaskRegistry.assign(taskId, scriptName);
+        // The task stays registered until the handler has run, so cancelling it while it is queued still drops it
+        Runnable queued = () -> {
+            if (TaskRegistry.isLive(taskId)) {
+                task.run();
             }
         };
-
-        int taskId = FoliaSupport.DelayTask(sharedClass.plugin, task, ticks);
-        ScriptWrapper.scriptTasksMap.computeIfAbsent(scriptName, k -> new ArrayList<>()).add(Integer.valueOf(taskId));
+        delayed.attach(TimerWheel.schedule(ticks, 0, () -> mailbox.post("task.delay", queued, () -> TaskRegistry.complete(taskId))));
 
         return taskId;
     }
 
-    public int repeat(String scriptName, ScriptEngine scriptEngine, Number Delay, Number Period, Object handler) {
+    public int repeat(String scriptName, ScriptEngine scriptEngine, Number Delay, Number Period, Value handler) {
+        return repeat(scriptName, scriptEngine, Delay, Period, handler, false);
+    }
+
+    /**
+     * @param exact True to run exactly after the delay, otherwise the repeat is spread over its period
+     *              so it does not run on the same tick as every other repeat of the same period
+     */
+    public int repeat(String scriptName, ScriptEngine scriptEngine, Number Delay, Number Period, Value handler, boolean exact) {
         double delaySec = Delay.doubleValue();
         double periodSec = Period.doubleValue();
 
@@ -183,43 +303,115 @@ public class scriptTaskerApi {
         long delayTicks = (long) (delaySec * 20);   // Delay before first run
         long periodTicks = (long) (periodSec * 20); // Interval between runs
 
-        Runnable task = () -> {
+        Runnable task = invokeHandler(scriptName, scriptEngine, handler);
+
+        ScriptMailbox mailbox = ScriptMailbox.of(scriptName);
+        // Repeats run on the server thread, except on Folia where they have always run asynchronously.
+        // There the run is handed to the mailbox, so the phase spreading measures the handler and not the post
+        TimerWheel.Timer timer = FoliaSupport.isFolia()
+                ? RepeatPhases.schedule(delayTicks, periodTicks, task, exact, run -> mailbox.post("task.repeat", run))
+                : RepeatPhases.schedule(delayTicks, periodTicks, () -> mailbox.runExclusive("task.repeat", task), exact);
+        int taskId = TaskRegistry.register(timer, TaskRegistry.TaskType.TIMER);
+        TaskRegistry.assign(taskId, scriptName);
+
+        return taskId;
+    }
+
+    public int iterate(String scriptName, ScriptEngine scriptEngine, Value generator, Number msPerTick, Value options) {
+        return GeneratorTask.start(scriptName, generator, msPerTick.doubleValue(), options);
+    }
+
+    public TaskGroup createGroup(String scriptName, String name) {
+        return TaskGroup.create(scriptName, name);
+    }
+
+    /**
+     * Runs the starter with the group as the current group, every task it starts joins the group.
+     *
+     * @return What the starter returned
+     */
+    public Value inGroup(String scriptName, TaskGroup group, Value starter) {
+        checkGroup(scriptName, group);
+        ScriptFunction function = ScriptFunction.of(starter, "f");
+        return TaskGroup.callAs(group, function::call);
+    }
+
+    public int cancelGroup(String scriptName, TaskGroup group) {
+        checkGroup(scriptName, group);
+        int count = group.cancel();
+        if (count > 0) {
+            Logger.log(Level.INFO, "[" + scriptName + "] Cancelled " + count + " tasks of " + group.getName(), pluginLogger.LIGHT_BLUE);
+        }
+        return count;
+    }
+
+    public void joinGroup(String scriptName, TaskGroup group, Value resolver) {
+        checkGroup(scriptName, group);
+        ScriptFunction resolve = ScriptFunction.of(resolver, "f");
+        ScriptMailbox mailbox = ScriptMailbox.of(scriptName);
+        group.join(() -> mailbox.post("task group join", () -> {
             try {
-                ((Invocable) scriptEngine).invokeMethod(handler, "f");
-            } catch (ScriptException | NoSuchMethodException e) {
+                resolve.call();
+            } catch (PolyglotException e) {
                 Logger.scriptlog(Level.WARNING, scriptName, e.getMessage(), pluginLogger.RED);
             }
-        };
+        }));
+    }
+
+    private static void checkGroup(String scriptName, TaskGroup group) {
+        if (group == null || !group.getScriptName().equals(scriptName)) {
+            throw new IllegalArgumentException("The task group does not belong to " + scriptName);
+        }
+    }
 
-        int taskId = FoliaSupport.ScheduleRepeatingTask(sharedClass.plugin, task, delayTicks, periodTicks);
-        ScriptWrapper.scriptTasksMap.computeIfAbsent(scriptName, k -> new ArrayList<>()).add(taskId);
+    public void sleep(String scriptName, Number seconds, Value resolver) {
+        long ticks = (long) Math.ceil(seconds.doubleValue() * 20); // Convert seconds to ticks
+        ScriptPromises.schedule(scriptName, resolver, ticks, ScriptPromises.Target.ASYNC, null);
+    }
 
-        return taskId;
+    public void nextTick(String scriptName, Value resolver) {
+        ScriptPromises.schedule(scriptName, resolver, 1, ScriptPromises.Target.ASYNC, null);
     }
 
-    public void cleanupListener(String scriptName, ScriptEngine scriptEngine, Object handler) {
-        try {
-            Logger.log(Level.INFO, "[" + scriptName + "] Listener cleanup executed.", pluginLogger.LIGHT_BLUE);
-            ((Invocable) scriptEngine).invokeMethod(handler, "f");
-        } catch (ScriptException | NoSuchMethodException e) {
-            Logger.scriptlog(Level.WARNING, scriptName, "Listener cleanup failed: " + e.getMessage(), pluginLogger.RED);
-        }
+    public void onMain(String scriptName, Value resolver) {
+        ScriptPromises.schedule(scriptName, resolver, 1, ScriptPromises.Target.MAIN, null);
+    }
+
+    public void onEntity(String scriptName, Entity entity, Value resolver) {
+        ScriptPromises.schedule(scriptName, resolver, 1, ScriptPromises.Target.ENTITY, entity);
+    }
+
+    private Runnable invokeHandler(String scriptName, ScriptEngine scriptEngine, Value handler) {
+        // Resolved once here instead of looking the function up on every run
+        ScriptFunction function = ScriptFunction.of(handler, "f");
+        // Tasks started by the handler join the group it has been started in
+        return TaskGroup.bind(() -> {
+            try {
+                function.call();
+            } catch (PolyglotException e) {
+                Logger.scriptlog(Level.WARNING, scriptName, e.getMessage(), pluginLogger.RED);
+            }
+        });
+    }
+
+    public void cleanupListener(String scriptName, ScriptEngine scriptEngine, ScriptFunction handler) {
+        ScriptMailbox.of(scriptName).runCleanup("listener cleanup", () -> {
+            try {
+                Logger.log(Level.INFO, "[" + scriptName + "] Listener cleanup executed.", pluginLogger.LIGHT_BLUE);
+                handler.call();
+            } catch (PolyglotException e) {
+                Logger.scriptlog(Level.WARNING, scriptName, "Listener cleanup failed: " + e.getMessage(), pluginLogger.RED);
+            }
+        });
     }
 
     public void cancel(String scriptName, Object thing) {
         if (thing instanceof Integer) {
             int taskId = (int) thing;
-            List<Integer> taskIds = ScriptWrapper.scriptTasksMap.get(scriptName);
-
-            if (taskIds != null && taskIds.remove(Integer.valueOf(taskId))) {
-                FoliaSupport.CancelTask(taskId);
+            if (TaskRegistry.cancel(scriptName, taskId)) {
                 Logger.log(Level.INFO, "[" + scriptName + "] Unregistered task ID " + taskId, pluginLogger.LIGHT_BLUE);
-
-                if (taskIds.isEmpty()) {
-                    ScriptWrapper.scriptTasksMap.remove(scriptName);
-                }
             } else {
-                Logger.log(Level.WARNING, "[" + scriptName + "] Tried to unregister unknown task ID " + taskId, pluginLogger.ORANGE);
+                Logger.log(Level.WARNING, "[" + scriptName + "] Tried to unregister unknown or finished task ID " + taskId, pluginLogger.ORANGE);
             }
             return;
         }
@@ -245,40 +437,72 @@ public class scriptTaskerApi {
         toRemove.forEach(listenerCleanupMap::remove);
     }
 
-    public <T> Object createListener(String scriptName, ScriptEngine engine, Class<T> interfaceClass, Object jsHandler) {
+    public <T> Object createListener(String scriptName, ScriptEngine engine, Class<T> interfaceClass, Value jsHandler) {
         if (!(engine instanceof Invocable)) {
             Logger.log(Level.WARNING, "Script engine is not invocable. Cannot bind handler.", pluginLogger.RED);
             return null;
         }
 
-        Invocable inv = (Invocable) engine;
+        ScriptMailbox mailbox = ScriptMailbox.of(scriptName);
+        // Resolve the functions for all methods of the interface once, missing ones return default values
+        Map<String, ScriptFunction> functions = new HashMap<>();
+        for (Method method : interfaceClass.getMethods()) {
+            ScriptFunction function = ScriptFunction.find(jsHandler, method.getName());
+            if (function != null) {
+                functions.put(method.getName(), function);
+            }
+        }
 
         Object proxy = Proxy.newProxyInstance(
                 interfaceClass.getClassLoader(),
                 new Class<?>[]{interfaceClass},
                 (p, method, args) -> {
-                    try {
-                        return inv.invokeMethod(jsHandler, method.getName(), args);
-                    } catch (NoSuchMethodException e) {
-                        if (method.getReturnType().isPrimitive()) {
-                            if (method.getReturnType() == boolean.class) return false;
-                            if (method.getReturnType() == char.class) return '\0';
-                            return 0;
-                        }
-                        return null;
-                    } catch (Exception e) {
-                        Logger.log(Level.SEVERE, "Listener handler error: " + e.getMessage(), pluginLogger.RED);
-                        return null;
+                    if (method.getDeclaringClass() == Object.class) {
+                        // The proxy is used as a map key, keep these on the Java side
+                        return switch (method.getName()) {
+                            case "hashCode" -> System.identityHashCode(p);
+                            case "equals" -> p == args[0];
+                            default -> "[" + scriptName + "] " + interfaceClass.getName() + " listener";
+                        };
                     }
+                    ScriptFunction function = functions.get(method.getName());
+                    if (function == null) {
+                        return defaultReturnValue(method);
+                    }
+                    return mailbox.callExclusive("listener " + interfaceClass.getSimpleName() + "." + method.getName(), () -> {
+                        try {
+                            Value result = function.call(args == null ? new Object[0] : args);
+                            return toReturnValue(method, result);
+                        } catch (Exception e) {
+                            Logger.log(Level.SEVERE, "Listener handler error: " + e.getMessage(), pluginLogger.RED);
+                            return defaultReturnValue(method);
+                        }
+                    }, defaultReturnValue(method));
                 }
         );
 
         return proxy;
     }
 
-    public void setListenerCleanup(String scriptName, ScriptEngine scriptEngine, Object proxy, Object cleanup) {
-        if (cleanup != null) {
-            listenerCleanupMap.put(proxy, new ListenerEntry(scriptName, scriptEngine, cleanup));
+    private static Object toReturnValue(Method method, Value result) {
+        Class<?> returnType = method.getReturnType();
+        if (returnType == void.class) return null;
+        if (result == null || result.isNull()) return defaultReturnValue(method);
+        return result.as(MethodType.methodType(returnType).wrap().returnType());
+    }
+
+    private static Object defaultReturnValue(Method method) {
+        Class<?> returnType = method.getReturnType();
+        if (returnType.isPrimitive() && returnType != void.class) {
+            return Array.get(Array.newInstance(returnType, 1), 0);
+        }
+        return null;
+    }
+
+    public void setListenerCleanup(String scriptName, ScriptEngine scriptEngine, Object proxy, Value cleanup) {
+        ScriptFunction cleanupFunction = ScriptFunction.find(cleanup, "f");
+        if (cleanupFunction != null) {
+            listenerCleanupMap.put(proxy, new ListenerEntry(scriptName, scriptEngine, cleanupFunction));
         } else {
             Logger.log(Level.WARNING, "[" + scriptName + "] Listener created without cleanup function. This may cause memory leaks.", pluginLogger.ORANGE);
         }
@@ -18,10 +18,11 @@ import org.bukkit.command.CommandMap;
 import org.bukkit.command.CommandSender;
 import org.bukkit.command.SimpleCommandMap;
 import org.bukkit.event.Event;
-import org.bukkit.event.EventPriority;
 import org.bukkit.event.HandlerList;
 import org.bukkit.event.Listener;
 import org.bukkit.plugin.java.JavaPlugin;
+import org.graalvm.polyglot.PolyglotException;
+import org.graalvm.polyglot.Value;
 import org.jetbrains.annotations.NotNull;
 import org.json.simple.JSONArray;
 import org.json.simple.parser.JSONParser;
@@ -36,9 +37,9 @@ import java.lang.reflect.InvocationTargetException;
 import java.lang.reflect.Method;
 import java.nio.file.Files;
 import java.util.*;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.ConcurrentHashMap;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
+import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.Future;
 import java.util.logging.Level;
 
@@ -47,10 +48,12 @@ import static org.bukkit.Bukkit.getServer;
 
 // this is the main stuff, but I haven't added many to no comments because I was way too focused when coding all that
 public class scriptWrapper {
-    private boolean scriptsReady = false;
+    private volatile boolean scriptsReady = false;
     private boolean hasInit = false;
+    // Released once the scripts are ready, waiting threads park instead of polling scriptsReady
+    private final CountDownLatch initLatch = new CountDownLatch(1);
+    private final Map<String, CompletableFuture<Void>> startWaiters = new ConcurrentHashMap<>();
     private final Map<String, List<Listener>> eventListenersMap = new HashMap<>();
-    public final Map<String, List<Integer>> scriptTasksMap = new HashMap<>();
     private final Map<String, Future<?>> scriptFutures = new HashMap<>();
     private final Map<String, ScriptEngine> scriptEngines = new HashMap<>();
     private final Map<String, List<Command>> scriptCommands = new HashMap<>();
@@ -64,7 +67,6 @@ public class scriptWrapper {
     public final List<String> disabledScripts = new ArrayList<>();
     public final List<String> activeFiles = new ArrayList<>();
     public final List<String> runningScripts = new ArrayList<>();
-    public final ExecutorService executorService;
     private final scriptTaskerApi taskApi;
 
     public scriptWrapper(JavaPlugin plugin, configurationUtil configUtil) {
@@ -73,7 +75,6 @@ public class scriptWrapper {
         this.PublicVarManager = new PublicVarManager();
         this.configUtil = configUtil;
         this.variableStorage = new VariableStorage(plugin);
-        this.executorService = Executors.newCachedThreadPool();
         this.taskApi = new scriptTaskerApi(this);
 
         // GraalJS is configured with ECMAScript 2022 support in ScriptEngine.java
@@ -82,7 +83,10 @@ public class scriptWrapper {
         // Initialize script system on first use
         if (!hasInit) {
             hasInit = true;
-            FoliaSupport.ScheduleTask(plugin, () -> scriptsReady = true, 20L);
+            FoliaSupport.ScheduleTask(plugin, () -> {
+                scriptsReady = true;
+                initLatch.countDown();
+            }, 20L);
             //plugin.getServer().getScheduler().runTaskLater(plugin, () -> scriptsReady = true, 20L);
         }
 
@@ -116,6 +120,19 @@ public class scriptWrapper {
         return runningScripts.contains(fileName);
     }
 
+    /**
+     * @return A future that completes once the script is running, it is already completed if it runs right now
+     */
+    public CompletableFuture<Void> whenRunning(String scriptName) {
+        CompletableFuture<Void> started = startWaiters.computeIfAbsent(scriptName, name -> new CompletableFuture<>());
+        // Checked after the future has been published, so a script that starts meanwhile cannot be missed
+        if (isJavascriptFileRunning(scriptName)) {
+            startWaiters.remove(scriptName, started);
+            started.complete(null);
+        }
+        return started;
+    }
+
     public static void addToCleanupMap(String scriptName, Runnable method) {
         cleanUpMethods.computeIfAbsent(scriptName, k -> new ArrayList<>()).add(method);
     }
@@ -125,7 +142,11 @@ public class scriptWrapper {
     }
 
     public void unregisterListener(Listener listener, String scriptName) {
-        HandlerList.unregisterAll(listener);
+        if (listener instanceof EventListenerWrapper scriptListener) {
+            scriptListener.unregister();
+        } else {
+            HandlerList.unregisterAll(listener);
+        }
         List<Listener> listeners = eventListenersMap.get(scriptName);
         if (listeners != null) {
             listeners.remove(listener);
@@ -146,13 +167,7 @@ public class scriptWrapper {
     }
 
     public void unregisterTasksFromScript(String scriptName) {
-        List<Integer> taskIds = scriptTasksMap.get(scriptName);
-        if (taskIds != null) {
-            for (int taskId : taskIds) {
-                FoliaSupport.CancelTask(taskId);
-            }
-            scriptTasksMap.remove(scriptName);
-        }
+        TaskRegistry.cancelAll(scriptName);
     }
 
     private static void invokeScriptCleanup(String scriptName) {
@@ -175,12 +190,7 @@ public class scriptWrapper {
     }
 
     public void unregisterAllTasks() {
-        for (List<Integer> taskIds : scriptTasksMap.values()) {
-            for (int taskId : taskIds) {
-                FoliaSupport.CancelTask(taskId);
-            }
-        }
-        scriptTasksMap.clear();
+        TaskRegistry.cancelAllScripts();
     }
 
     public void loadDisabledScripts() {
@@ -199,10 +209,15 @@ public class scriptWrapper {
         for (Map.Entry<String, List<Listener>> entry : eventListenersMap.entrySet()) {
             List<Listener> listeners = entry.getValue();
             for (Listener listener : listeners) {
-                HandlerList.unregisterAll(listener);
+                if (listener instanceof EventListenerWrapper scriptListener) {
+                    scriptListener.unregister();
+                } else {
+                    HandlerList.unregisterAll(listener);
+                }
             }
         }
         eventListenersMap.clear();
+        EventDispatcher.unregisterAll();
     }
 
     public CommandMap getCommandMap() {
@@ -356,17 +371,20 @@ public class scriptWrapper {
         if (engine != null) {
 
             if (engine instanceof Invocable invocable) {
-                try {
-                    invocable.invokeFunction("_unloadThis");
-                } catch (NoSuchMethodException | ScriptException e) {
-                    Logger.scriptlog(Level.WARNING, scriptName, "Failed to garbage collect: " + e.getMessage(), pluginLogger.RED);
-                }
+                ScriptMailbox.of(scriptName).runCleanup("unload", () -> {
+                    try {
+                        invocable.invokeFunction("_unloadThis");
+                    } catch (NoSuchMethodException | ScriptException e) {
+                        Logger.scriptlog(Level.WARNING, scriptName, "Failed to garbage collect: " + e.getMessage(), pluginLogger.RED);
+                    }
+                });
             }
 
             engine.getBindings(ScriptContext.ENGINE_SCOPE).clear();
             engine = null;
             System.gc(); // I am not even sure if that will help
         }
+        ScriptMailbox.close(scriptName);
 
         if (plugin.isEnabled()) {
             // Folia fallback
@@ -499,62 +517,32 @@ public class scriptWrapper {
 
             unloadScript(scriptId);
 
+            long setupStart = System.nanoTime();
             ScriptEngine localScriptEngine = coolcostupit.openjs.modules.ScriptEngine.getEngine();
             scriptEngines.put(scriptId, localScriptEngine);
 
-            // Initialize the custom in-built stuff
+            // Initialize the custom in-built stuff, every script gets its own facades since they cache the methods they resolved
             localScriptEngine.put("plugin", plugin);
-            localScriptEngine.put("scriptManager", this); // TODO: Try to lazy-load this, loading it on every script is memory intensive
+            localScriptEngine.put("scriptManager", new ReadOnlyBinding(this));
             localScriptEngine.put("scriptEngine", localScriptEngine);
             localScriptEngine.put("currentScriptName", scriptId);
-            localScriptEngine.put("log", new ScriptLogger(getLogger(), scriptId));
-            localScriptEngine.put("variableStorage", variableStorage);
-            localScriptEngine.put("DiskStorage", sharedClass.DiskStorageApi);
-            localScriptEngine.put("publicVarManager", PublicVarManager);
-            localScriptEngine.put("_task", taskApi); // See class: JavascriptHelper
-            localScriptEngine.put("_libImporter", sharedClass.LibImporterApi);
+            localScriptEngine.put("log", new ReadOnlyBinding(new ScriptLogger(getLogger(), scriptId)));
+            localScriptEngine.put("variableStorage", new ReadOnlyBinding(variableStorage));
+            localScriptEngine.put("DiskStorage", new ReadOnlyBinding(sharedClass.DiskStorageApi));
+            localScriptEngine.put("publicVarManager", new ReadOnlyBinding(PublicVarManager));
+            localScriptEngine.put("_task", new ReadOnlyBinding(taskApi)); // See class: JavascriptHelper
+            localScriptEngine.put("_libImporter", new ReadOnlyBinding(sharedClass.LibImporterApi));
             localScriptEngine.put("_internalPluginLogger", Logger);
             localScriptEngine.put("IsFoliaServer", FoliaSupport.isFolia());
+            long bindingsNanos = System.nanoTime() - setupStart;
 
-            Future<?> future = executorService.submit(() -> {
+            // Everything that enters the context of this script from now on goes through its mailbox
+            ScriptMailbox mailbox = ScriptMailbox.open(scriptId);
+            Future<?> future = mailbox.post("script body", () -> {
                 try {
-                    // Developer protections and memory optimization (just a myth but freezing in-build variables should decrease memory overhead)
-                    localScriptEngine.eval("""
-                    const deepFreeze = function(obj) {
-                        if (obj === null || typeof obj !== 'object') return obj;
-                        Object.getOwnPropertyNames(obj).forEach(function(name) {
-                            var prop = obj[name];
-                            if (typeof prop === 'object' && prop !== null && !Object.isFrozen(prop)) {
-                                deepFreeze(prop);
-                            }
-                        });
-                        return Object.freeze(obj);
-                    }
-                    
-                    deepFreeze(plugin);
-                    deepFreeze(scriptManager);
-                    deepFreeze(scriptEngine);
-                    deepFreeze(log);
-                    deepFreeze(variableStorage);
-                    deepFreeze(DiskStorage);
-                    deepFreeze(publicVarManager);
-                    deepFreeze(_task);
-                    deepFreeze(_libImporter);
-                    
-                    Object.defineProperty(this, 'currentScriptName', {
-                      value: currentScriptName,
-                      writable: false,
-                      configurable: false,
-                      enumerable: true
-                    });
-                    
-                    Object.defineProperty(this, 'IsFoliaServer', {
-                      value: IsFoliaServer,
-                      writable: false,
-                      configurable: false,
-                      enumerable: true
-                    });
-                    """);
+                    long preludeStart = System.nanoTime();
+                    coolcostupit.openjs.modules.ScriptEngine.eval(localScriptEngine, JavascriptHelper.PROTECTION_SOURCE);
+                    long protectionNanos = System.nanoTime() - preludeStart;
 
                     if (configUtil.getConfigFromBuffer("AllowFeatureFlags", true)) {
                         if (FlagInterpreter.hasFlag(scriptFile, "waitForInit")) {
@@ -562,7 +550,11 @@ public class scriptWrapper {
                         }
                     }
 
-                    localScriptEngine.eval(JavascriptHelper.JAVASCRIPT_CODE);
+                    preludeStart = System.nanoTime();
+                    coolcostupit.openjs.modules.ScriptEngine.eval(localScriptEngine, JavascriptHelper.JAVASCRIPT_SOURCE);
+                    coolcostupit.openjs.modules.ScriptEngine.recordContextSetup(scriptId,
+                            bindingsNanos + protectionNanos + (System.nanoTime() - preludeStart));
+
                     List BridgesToLoad = FlagInterpreter.getFlags(scriptFile);
 
                     if (!BridgesToLoad.isEmpty()) {
@@ -570,7 +562,9 @@ public class scriptWrapper {
                     }
 
                     String processedScript = preprocessScript(scriptFile, localScriptEngine);
-                    localScriptEngine.eval(processedScript);
+                    // Unchanged scripts re-use their cached source, so the shared engine skips parsing them again
+                    coolcostupit.openjs.modules.ScriptEngine.eval(localScriptEngine,
+                            coolcostupit.openjs.modules.ScriptEngine.getScriptSource(scriptId, processedScript));
                     if (configUtil.getConfigFromBuffer("PrintScriptActivations", true)) {
                         Logger.log(Level.INFO, "Loaded the script " + scriptId, pluginLogger.GREEN);
                     }
@@ -588,6 +582,10 @@ public class scriptWrapper {
             if (!runningScripts.contains(scriptId)) {
                 runningScripts.add(scriptId);
             }
+            CompletableFuture<Void> started = startWaiters.remove(scriptId);
+            if (started != null) {
+                started.complete(null);
+            }
 
             scriptFutures.put(scriptId, future);
             return new ScriptLoadResult(true, "Script loaded successfully.");
@@ -603,10 +601,13 @@ public class scriptWrapper {
 
             // Use recursive scan to find all scripts including those in subfolders
             List<File> allScripts = getAllScriptFiles(scriptsFolder);
+            Set<String> scriptIds = new HashSet<>();
             for (File scriptFile : allScripts) {
-                Future<?> future = executorService.submit(() -> loadScript(scriptFile, false));
+                scriptIds.add(ScriptPathUtils.getScriptIdentifier(scriptsFolder, scriptFile));
+                Future<?> future = ScriptExecutors.loader().submit(() -> loadScript(scriptFile, false));
                 futures.add(future);
             }
+            coolcostupit.openjs.modules.ScriptEngine.retainSources(scriptIds);
 
             for (Future<?> future : futures) {
                 try {
@@ -619,30 +620,44 @@ public class scriptWrapper {
     }
 
     // In-Build script functions: (HELPERS)
-    public void registerCommand(String commandName, Object commandHandler, String scriptName, ScriptEngine scriptEngine, @Nullable String permission) {
+    public void registerCommand(String commandName, Value commandHandler, String scriptName, ScriptEngine scriptEngine, @Nullable String permission) {
         try {
             CommandMap commandMap = getCommandMap();
+            ScriptMailbox mailbox = ScriptMailbox.of(scriptName);
+            ScriptFunction onCommand = ScriptFunction.of(commandHandler, "onCommand");
+            ScriptFunction onTabComplete = ScriptFunction.find(commandHandler, "onTabComplete");
 
             Command dynamicCommand = new Command(commandName) {
                 @Override
                 public boolean execute(@NotNull CommandSender sender, @NotNull String label, String[] args) {
                     if (!testPermission(sender)) return true; // permission check, may be redundant
-                    try {
-                        ((Invocable) scriptEngine).invokeMethod(commandHandler, "onCommand", sender, args);
-                    } catch (Exception e) {
-                        sender.sendMessage(chatColors.RED + "An error occurred while executing the command: " + e.getMessage());
-                        Logger.scriptlog(Level.SEVERE, scriptName, "Error in script command execution for " + commandName + ": " + e.getMessage(), pluginLogger.ORANGE);
+                    boolean handled = mailbox.runCritical("command /" + commandName, () -> {
+                        try {
+                            onCommand.call(sender, args);
+                        } catch (Exception e) {
+                            sender.sendMessage(chatColors.RED + "An error occurred while executing the command: " + e.getMessage());
+                            Logger.scriptlog(Level.SEVERE, scriptName, "Error in script command execution for " + commandName + ": " + e.getMessage(), pluginLogger.ORANGE);
+                        }
+                    });
+                    if (!handled) {
+                        sender.sendMessage(chatColors.RED + "The script is busy, please try again.");
                     }
                     return true;
                 }
 
                 @Override
                 public @NotNull List<String> tabComplete(@NotNull CommandSender sender, @NotNull String alias, String[] args) {
-                    if (commandHandler instanceof Bindings && ((Bindings) commandHandler).containsKey("onTabComplete")) {
-                        try {
-                            return (List<String>) ((Invocable) scriptEngine).invokeMethod(commandHandler, "onTabComplete", sender, args);
-                        } catch (Exception e) {
-                            Logger.scriptlog(Level.WARNING, scriptName, "] Error during tab-completion for command " + commandName + ": " + e.getMessage(), pluginLogger.ORANGE);
+                    if (onTabComplete != null) {
+                        List<String> completions = mailbox.callCritical("tab-completion of /" + commandName, () -> {
+                            try {
+                                return toStringList(onTabComplete.call(sender, args));
+                            } catch (Exception e) {
+                                Logger.scriptlog(Level.WARNING, scriptName, "] Error during tab-completion for command " + commandName + ": " + e.getMessage(), pluginLogger.ORANGE);
+                                return null;
+                            }
+                        }, null);
+                        if (completions != null) {
+                            return completions;
                         }
                     }
                     return super.tabComplete(sender, alias, args);
@@ -665,28 +680,39 @@ public class scriptWrapper {
         }
     }
 
+    // Copies the result of a script function, so it stays usable outside of the script context
+    private static @Nullable List<String> toStringList(Value value) {
+        if (value == null || !value.hasArrayElements()) {
+            return null;
+        }
+        List<String> list = new ArrayList<>((int) value.getArraySize());
+        for (long i = 0; i < value.getArraySize(); i++) {
+            Value element = value.getArrayElement(i);
+            list.add(element.isString() ? element.asString() : element.toString());
+        }
+        return list;
+    }
+
     public void waitForInit() {
-        while (!scriptsReady) {
-            try {
-                //noinspection BusyWait
-                Thread.sleep(100);
-            } catch (InterruptedException e) {
-                Thread.currentThread().interrupt();
-                break;
-            }
+        try {
+            initLatch.await();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
         }
     }
 
     // TODO: Remove in 1.1.3 (In favor of taskApi)
-    public void registerSchedule(String scriptName, long delay, long period, Object handler, ScriptEngine scriptEngine, String methodName) {
+    public void registerSchedule(String scriptName, long delay, long period, Value handler, ScriptEngine scriptEngine, String methodName) {
         Logger.scriptlog(Level.WARNING, scriptName, "Do not use registerSchedule! This will get removed soon, use task.repeat instead!", pluginLogger.ORANGE);
-        Runnable task = () -> {
+        ScriptMailbox mailbox = ScriptMailbox.of(scriptName);
+        ScriptFunction function = ScriptFunction.of(handler, methodName);
+        Runnable task = () -> mailbox.execute("schedule " + methodName, () -> {
             try {
-                ((Invocable) scriptEngine).invokeMethod(handler, methodName);
-            } catch (ScriptException | NoSuchMethodException e) {
+                function.call();
+            } catch (PolyglotException e) {
                 Logger.log(Level.SEVERE, "["+scriptName+"] " + e.getMessage(), pluginLogger.RED);
             }
-        };
+        });
 
         int taskId;
         if (period > 0) {
@@ -695,29 +721,24 @@ public class scriptWrapper {
             taskId = FoliaSupport.ScheduleTask(plugin, task, delay);
         }
 
-        scriptTasksMap.computeIfAbsent(scriptName, k -> new ArrayList<>()).add(Integer.valueOf(taskId));
+        TaskRegistry.assign(taskId, scriptName);
     }
 
-    public Listener registerEvent(String eventClassName, Object handler, String scriptName, ScriptEngine scriptEngine) {
-        try {
-            Class<?> eventClass = Class.forName(eventClassName);
-            if (Event.class.isAssignableFrom(eventClass)) {
-                Class<? extends Event> eventClassCasted = (Class<? extends Event>) eventClass;
-                Listener listener = new EventListenerWrapper(scriptEngine, handler, plugin);
-                getServer().getPluginManager().registerEvent(eventClassCasted, listener, EventPriority.NORMAL, (l, e) -> {
-                    try {
-                        ((Invocable) scriptEngine).invokeMethod(handler, "handleEvent", e);
-                    } catch (ScriptException | NoSuchMethodException ex) {
-                        Logger.log(Level.SEVERE, "[" + scriptName + "] " + ex.getMessage(), pluginLogger.RED);
-                    }
-                }, plugin);
+    public Listener registerEvent(String eventClassName, Value handler, String scriptName, ScriptEngine scriptEngine) {
+        return registerEvent(eventClassName, handler, scriptName, scriptEngine, null);
+    }
 
-                eventListenersMap.computeIfAbsent(scriptName, k -> new ArrayList<>()).add(listener);
-                return listener;
-            } else {
-                Logger.scriptlog(Level.WARNING, scriptName, "Class " + eventClassName + " is not an Event.", pluginLogger.ORANGE);
-            }
-        } catch (ClassNotFoundException e) {
+    public Listener registerEvent(String eventClassName, Value handler, String scriptName, ScriptEngine scriptEngine, @Nullable Value options) {
+        try {
+            Class<? extends Event> eventClass = EventDispatcher.resolveEventClass(eventClassName);
+            EventOptions eventOptions = EventOptions.parse(options, eventClass);
+            EventDispatcher dispatcher = EventDispatcher.get(eventClass, eventOptions.priority, eventOptions.ignoreCancelled);
+            EventListenerWrapper listener = new EventListenerWrapper(handler, scriptName, eventClass, dispatcher, eventOptions);
+            listener.register();
+
+            eventListenersMap.computeIfAbsent(scriptName, k -> new ArrayList<>()).add(listener);
+            return listener;
+        } catch (ClassNotFoundException | IllegalArgumentException e) {
             Logger.scriptlog(Level.WARNING, scriptName, "Failed to register event " + eventClassName + ": " + e.getMessage(), pluginLogger.ORANGE);
         }
         return null;
@@ -7,12 +7,14 @@
 package coolcostupit.openjs.pluginbridges;
 
 import coolcostupit.openjs.logging.pluginLogger;
+import coolcostupit.openjs.modules.ScriptFunction;
+import coolcostupit.openjs.modules.ScriptMailbox;
 import coolcostupit.openjs.modules.sharedClass;
 import me.clip.placeholderapi.PlaceholderAPI;
 import org.bukkit.entity.Player;
+import org.graalvm.polyglot.Value;
 import org.jetbrains.annotations.NotNull;
 
-import javax.script.Invocable;
 import javax.script.ScriptEngine;
 import java.util.HashMap;
 import java.util.Map;
@@ -22,14 +24,16 @@ public class PlaceHolderApiJS {
     private static final Map<String, PlaceholderData> registeredPlaceholders = new HashMap<>();
 
     public static class PlaceholderData {
-        public final Object handler;
+        public final ScriptFunction onRequest;
         public final ScriptEngine engine;
         public final String scriptName;
+        public final ScriptMailbox mailbox;
 
-        public PlaceholderData(Object handler, ScriptEngine engine, String scriptName) {
-            this.handler = handler;
+        public PlaceholderData(Value handler, ScriptEngine engine, String scriptName) {
+            this.onRequest = ScriptFunction.of(handler, "onRequest");
             this.engine = engine;
             this.scriptName = scriptName;
+            this.mailbox = ScriptMailbox.of(scriptName);
         }
     }
 
@@ -40,14 +44,21 @@ public class PlaceHolderApiJS {
         return PlaceholderAPI.setPlaceholders(player, text);
     }
 
-    public void registerPlaceholder(String prefix, Object handler, String scriptName, ScriptEngine engine) {
+    public void registerPlaceholder(String prefix, Value handler, String scriptName, ScriptEngine engine) {
+        PlaceholderData data;
+        try {
+            data = new PlaceholderData(handler, engine, scriptName);
+        } catch (IllegalArgumentException e) {
+            sharedClass.logger.log(Level.WARNING, "[" + scriptName + "] Placeholder %" + sharedClass.Identifier + "_" + prefix + "% could not be registered: " + e.getMessage(), pluginLogger.ORANGE);
+            return;
+        }
         if (registeredPlaceholders.containsKey(prefix)) {
             sharedClass.logger.log(Level.WARNING, "[" + scriptName + "] Placeholder %" + sharedClass.Identifier + "_" + prefix + "% already exists and will be overwritten.", pluginLogger.ORANGE);
         }
         if (prefix.contains("_")) {
             sharedClass.logger.log(Level.WARNING, "[" + scriptName + "] Placeholder '%" + sharedClass.Identifier + "_" + prefix + "%' contains an underscore, which will make it unusable due to parameter splitting!", pluginLogger.ORANGE);
         }
-        registeredPlaceholders.put(prefix, new PlaceholderData(handler, engine, scriptName));
+        registeredPlaceholders.put(prefix, data);
         if (sharedClass.configUtil.getConfigFromBuffer("LogPlaceHolderActivity", true)) {
             sharedClass.logger.log(Level.INFO, "[" + scriptName + "] Placeholder %" + sharedClass.Identifier + "_" + prefix + "% has been registered.", pluginLogger.GREEN);
         }
@@ -80,11 +91,15 @@ public class PlaceHolderApiJS {
     public String invokePrefix(String prefix, Player player, String params) {
         PlaceholderData data = registeredPlaceholders.get(prefix);
         if (data == null) return null;
-        try {
-            return (String) ((Invocable) data.engine).invokeMethod(data.handler, "onRequest", player, params);
-        } catch (Exception e) {
-            sharedClass.logger.log(Level.SEVERE, "[" + data.scriptName + "] Error invoking placeholder %" + sharedClass.Identifier + "_" + prefix + "% reason: " + e.getMessage(), pluginLogger.RED);
-            return null;
-        }
+        // Placeholders are requested from any thread and the caller waits for the text
+        return data.mailbox.callExclusive("placeholder %" + sharedClass.Identifier + "_" + prefix + "%", () -> {
+            try {
+                Value result = data.onRequest.call(player, params);
+                return result.isNull() ? null : result.isString() ? result.asString() : result.toString();
+            } catch (Exception e) {
+                sharedClass.logger.log(Level.SEVERE, "[" + data.scriptName + "] Error invoking placeholder %" + sharedClass.Identifier + "_" + prefix + "% reason: " + e.getMessage(), pluginLogger.RED);
+                return null;
+            }
+        }, null);
     }
 }
@@ -11,10 +11,12 @@ import com.comphenix.protocol.ProtocolLibrary;
 import com.comphenix.protocol.ProtocolManager;
 import com.comphenix.protocol.events.*;
 import coolcostupit.openjs.logging.pluginLogger;
+import coolcostupit.openjs.modules.ScriptFunction;
+import coolcostupit.openjs.modules.ScriptMailbox;
 import coolcostupit.openjs.modules.scriptWrapper;
 import coolcostupit.openjs.modules.sharedClass;
+import org.graalvm.polyglot.Value;
 
-import javax.script.Invocable;
 import javax.script.ScriptEngine;
 import java.util.*;
 import java.util.concurrent.ConcurrentHashMap;
@@ -30,25 +32,33 @@ public class ProtocolLibBridge {
     public final ScriptEngine engine;
     public final String scriptName;
     public final pluginLogger Logger;
+    private final ScriptMailbox mailbox;
 
     public ProtocolLibBridge(ScriptEngine engine, String scriptName) {
         this.engine = engine;
         this.scriptName = scriptName;
         this.Logger = sharedClass.logger;
+        this.mailbox = ScriptMailbox.of(scriptName);
         scriptWrapper.addToCleanupMap(scriptName, this::clearListeners);
     }
 
-    public PacketListener registerListener(String Priority, Object jsHandler, List<String> packetTypeStrings) {
+    public PacketListener registerListener(String Priority, Value jsHandler, List<String> packetTypeStrings) {
         PacketType[] types = resolvePacketTypes(scriptName, packetTypeStrings);
+        ScriptFunction onSend = ScriptFunction.find(jsHandler, "onSend");
+        ScriptFunction onReceive = ScriptFunction.find(jsHandler, "onReceive");
         PacketAdapter adapter = new PacketAdapter(sharedClass.plugin, ListenerPriority.valueOf(Priority), types) {
             @Override
             public void onPacketSending(PacketEvent event) {
-                invokeJS(jsHandler, "onSend", event);
+                if (onSend != null) {
+                    invokeJS(onSend, event);
+                }
             }
 
             @Override
             public void onPacketReceiving(PacketEvent event) {
-                invokeJS(jsHandler, "onReceive", event);
+                if (onReceive != null) {
+                    invokeJS(onReceive, event);
+                }
             }
         };
 
@@ -76,11 +86,14 @@ public class ProtocolLibBridge {
         }
     }
 
-    private void invokeJS(Object handler, String method, PacketEvent event) {
-        try {
-            ((Invocable) engine).invokeMethod(handler, method, event);
-        } catch (Exception e) {
-            Logger.scriptlog(Level.WARNING, scriptName, "[ProtocolLib] " + method + " failed: " + e.getMessage(), pluginLogger.ORANGE);
-        }
+    private void invokeJS(ScriptFunction function, PacketEvent event) {
+        // Packets arrive on netty threads, the event may only be modified before the handler returns
+        mailbox.runExclusive("[ProtocolLib] " + function.getName(), () -> {
+            try {
+                function.call(event);
+            } catch (Exception e) {
+                Logger.scriptlog(Level.WARNING, scriptName, "[ProtocolLib] " + function.getName() + " failed: " + e.getMessage(), pluginLogger.ORANGE);
+            }
+        });
     }
 }
\ No newline at end of file
@@ -7,20 +7,156 @@
 package coolcostupit.openjs.utility;
 
 import coolcostupit.openjs.logging.pluginLogger;
+import coolcostupit.openjs.modules.ScriptExecutors;
+import coolcostupit.openjs.modules.ScriptFunction;
+import coolcostupit.openjs.modules.ScriptMailbox;
+import coolcostupit.openjs.modules.StatsReporter;
 import coolcostupit.openjs.modules.sharedClass;
 import org.bukkit.plugin.java.JavaPlugin;
+import org.graalvm.polyglot.PolyglotException;
+import org.graalvm.polyglot.Value;
 
 import java.io.*;
 import java.util.*;
 import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
 import java.util.logging.Level;
 
+/**
+ * The save files of the DiskApi. Loaded files are kept in memory, saving appends the keys that changed since the last
+ * save to the log of the file (see {@link StorageLog}), the log is compacted into the snapshot in the background.
+ * <p>
+ * All file work runs on the single storage thread of {@link ScriptExecutors}. Files with changes are flushed there
+ * in one batch every "StorageFlushInterval" ticks, an asynchronous saveFile only marks the file for that batch,
+ * so saving the same file every tick costs one write per batch.
+ * With "StorageFsync" the logs written by a batch are forced to the disk together once the batch is done.
+ * <p>
+ * Every loaded file goes through the states of {@link FileState}. Reads and writes of a file that is still loading
+ * wait for the load, a file that is loaded again while it waits for its save or is being saved stays in memory.
+ * <p>
+ * The loaded files may use about "StorageCacheSize" MB of memory. Above that, the storage thread evicts the files
+ * that were used the least (by a use count that is halved every flush, then by the last use). Their changes are
+ * written first, and the next getVar or setVar loads them again. A file that has just been used is not evicted,
+ * so a single file bigger than the limit is only evicted once it is idle.
+ */
 public class DiskStorage {
 
+    private enum FileState {
+        // Being read from the disk, the data is not complete yet
+        LOADING,
+        LOADED,
+        // The changes are being appended to the log, the data can still be used
+        SAVING
+    }
+
+    private static final class StoredFile {
+        private final Map<String, String> data = new ConcurrentHashMap<>();
+        private final CompletableFuture<Void> loaded = new CompletableFuture<>();
+        private volatile FileState state;
+        // Unloaded by the next flush, unless the file is loaded again before
+        private volatile boolean unloadRequested = false;
+        // Guarded by this, the keys set or removed since the file has been loaded or saved
+        private Set<String> dirtyKeys = new HashSet<>();
+        // Guarded by this, when the first of those keys changed
+        private long dirtySince = 0;
+        // Guarded by this, an unloaded file is not in the files map anymore and must not be changed
+        private boolean unloaded = false;
+        // Guarded by this, the estimated memory of the data
+        private long bytes = 0;
+        private final AtomicInteger uses = new AtomicInteger();
+        private volatile long lastUse = System.nanoTime();
+
+        private StoredFile(FileState state) {
+            this.state = state;
+            if (state != FileState.LOADING) {
+                loaded.complete(null);
+            }
+        }
+
+        private synchronized boolean hasChanges() {
+            return !dirtyKeys.isEmpty();
+        }
+
+        private void use() {
+            uses.incrementAndGet();
+            lastUse = System.nanoTime();
+        }
+    }
+
+    // Eviction order of a file, taken before sorting because the uses keep changing
+    private static final class EvictionCandidate {
+        private final String fullName;
+        private final StoredFile file;
+        private final int uses;
+        private final long lastUse;
+
+        private EvictionCandidate(String fullName, StoredFile file) {
+            this.fullName = fullName;
+            this.file = file;
+            this.uses = file.uses.get();
+            this.lastUse = file.lastUse;
+        }
+    }
+
+    // Memory of a map entry and its two strings besides the characters
+    private static final long ENTRY_OVERHEAD_BYTES = 96;
+    // Files used within this time stay loaded
+    private static final long MIN_IDLE_NANOS = 1_000_000_000L;
+
     private final File SAVE_DIR;
-    private static final Map<String, Map<String, String>> cache = new ConcurrentHashMap<>();
+    private static final Map<String, StoredFile> files = new ConcurrentHashMap<>();
+    // Files that have been evicted and are loaded again on their next use
+    private static final Set<String> evicted = ConcurrentHashMap.newKeySet();
+    private static final AtomicLong cachedBytes = new AtomicLong();
+    private static final LongAdder hits = new LongAdder();
+    private static final LongAdder misses = new LongAdder();
+    private static final LongAdder reloads = new LongAdder();
+    private static final LongAdder evictions = new LongAdder();
+    private static volatile long maxCachedBytes = 128L * 1024 * 1024;
     private static final Map<String, Set<String>> privateCache = new ConcurrentHashMap<>();
-    private static final Set<String> filesBeingSaved = ConcurrentHashMap.newKeySet();
+    private static final LongAdder flushes = new LongAdder();
+    private static final LongAdder mergedSaves = new LongAdder();
+    private static final LongAdder writtenKeys = new LongAdder();
+    private static final LongAdder syncedFiles = new LongAdder();
+    private static final LongAdder syncWindows = new LongAdder();
+    private static volatile boolean fsync = true;
+    private static volatile long lastSyncNanos = 0;
+    private static volatile long lastFlushLatency = 0;
+    private static volatile long maxFlushLatency = 0;
+    private static volatile long lastBatchNanos = 0;
+    private volatile ScheduledFuture<?> flushTask;
+
+    static {
+        StatsReporter.register("Disk storage", () -> {
+            int loading = 0;
+            int dirty = 0;
+            int pendingSaves = 0;
+            for (StoredFile file : files.values()) {
+                if (file.state == FileState.LOADING) {
+                    loading++;
+                }
+                if (file.hasChanges()) {
+                    dirty++;
+                }
+                if (file.unloadRequested) {
+                    pendingSaves++;
+                }
+            }
+            return List.of(
+                    "loaded files=" + files.size() + " loading=" + loading + " dirty files=" + dirty + " pending saves=" + pendingSaves,
+                    "flushes=" + flushes.sum() + " merged saves=" + mergedSaves.sum() + " written keys=" + writtenKeys.sum(),
+                    "last flush latency=" + StatsReporter.formatNanos(lastFlushLatency)
+                            + " max=" + StatsReporter.formatNanos(maxFlushLatency)
+                            + " last batch=" + StatsReporter.formatNanos(lastBatchNanos),
+                    "fsync=" + fsync + " synced files=" + syncedFiles.sum() + " sync windows=" + syncWindows.sum()
+                            + " last sync=" + StatsReporter.formatNanos(lastSyncNanos),
+                    "cache=" + cachedBytes.get() / 1024 + "KB/" + (maxCachedBytes > 0 ? maxCachedBytes / 1024 + "KB" : "unbounded")
+                            + " hits=" + hits.sum() + " misses=" + misses.sum()
+                            + " reloads=" + reloads.sum() + " evictions=" + evictions.sum());
+        });
+    }
 
     public DiskStorage(JavaPlugin Plugin) {
         this.SAVE_DIR = new File(Plugin.getDataFolder(), "saveFiles");
@@ -29,120 +165,397 @@ public class DiskStorage {
         }
     }
 
+    private static String getFullName(String fileName, String scriptName, boolean global) {
+        // For script-specific files, convert script path to safe filename (e.g., "utils/test.js" → "utils_test.js")
+        return (global ? fileName : ScriptPathUtils.toSafeFileName(scriptName) + "_" + fileName).replaceAll("[^a-zA-Z0-9._-]", "_");
+    }
+
+    /**
+     * Starts flushing the files with changes on the storage thread, has to be called after {@link ScriptExecutors#start()}.
+     */
+    public synchronized void startWriteBehind() {
+        if (flushTask != null) {
+            flushTask.cancel(false);
+        }
+        fsync = sharedClass.configUtil.getConfigFromBuffer("StorageFsync", true);
+        maxCachedBytes = Math.max(0, sharedClass.configUtil.getConfigFromBuffer("StorageCacheSize", 128)) * 1024L * 1024L;
+        long intervalMillis = Math.max(1, sharedClass.configUtil.getConfigFromBuffer("StorageFlushInterval", 100)) * 50L;
+        flushTask = ScriptExecutors.storage().scheduleWithFixedDelay(this::flushDirty, intervalMillis, intervalMillis, TimeUnit.MILLISECONDS);
+    }
+
+    // Runs the file work on the storage thread, or right here while the storage thread is not running
+    private void runOnStorage(Runnable task) {
+        ExecutorService storage = ScriptExecutors.storage();
+        if (storage != null) {
+            try {
+                storage.execute(task);
+                return;
+            } catch (RejectedExecutionException ignored) {
+            }
+        }
+        task.run();
+    }
+
     public void saveAllCaches(boolean async) {
+        // Save each file in one batch, without a task per file
         Runnable task = () -> {
-            for (String fileName : cache.keySet()) {
-                saveFile(fileName, false, "", true); // Save each file synchronously to avoid thread spam
+            long start = System.nanoTime();
+            List<String> written = new ArrayList<>();
+            for (Map.Entry<String, StoredFile> entry : files.entrySet()) {
+                entry.getValue().unloadRequested = true;
+                if (writeFile(entry.getKey(), entry.getValue())) {
+                    written.add(entry.getKey());
+                }
             }
+            syncFiles(written);
+            lastBatchNanos = System.nanoTime() - start;
         };
 
         if (async) {
-            new Thread(task).start();
+            runOnStorage(task);
         } else {
             task.run();
         }
     }
 
-    // TODO: If saveFile operation is running on the file while trying to load it, load from the cache
-    public void loadFile(String fileName, boolean async, String scriptName, boolean global) {
-        Runnable task = () -> {
-            // For script-specific files, convert script path to safe filename (e.g., "utils/test.js" → "utils_test.js")
-            String fullName = (global ? fileName : ScriptPathUtils.toSafeFileName(scriptName) + "_" + fileName).replaceAll("[^a-zA-Z0-9._-]", "_");
-            File file = new File(SAVE_DIR, fullName + ".dat");
-            while (filesBeingSaved.contains(fullName)) {
-                try {
-                    Thread.sleep(10);
-                } catch (InterruptedException ignored) {
-                }
+    /**
+     * Loads the file into the memory. A file that is loaded already is used as it is, because it is newer
+     * than the file on the disk, this also goes for a file that waits for its save or is being saved.
+     *
+     * @return Completes once the file can be used, a synchronous load returns a completed future
+     */
+    public CompletableFuture<Void> loadFile(String fileName, boolean async, String scriptName, boolean global) {
+        String fullName = getFullName(fileName, scriptName, global);
+        if (!global) {
+            privateCache.computeIfAbsent(scriptName, k -> ConcurrentHashMap.newKeySet()).add(fullName);
+        }
+        return load(fullName, async).loaded;
+    }
+
+    private StoredFile load(String fullName, boolean async) {
+        evicted.remove(fullName);
+        boolean[] created = {false};
+        StoredFile file = files.compute(fullName, (k, existing) -> {
+            if (existing != null) {
+                existing.unloadRequested = false;
+                return existing;
             }
+            created[0] = true;
+            return new StoredFile(FileState.LOADING);
+        });
 
-            Map<String, String> fileData = new HashMap<>();
+        if (created[0]) {
+            Runnable read = () -> readFile(fullName, file);
+            if (async) {
+                runOnStorage(read);
+            } else {
+                read.run();
+            }
+        } else if (!async) {
+            file.loaded.join();
+        }
+        return file;
+    }
 
-            if (file.exists()) {
-                try (BufferedReader reader = new BufferedReader(new FileReader(file))) {
-                    String line;
-                    while ((line = reader.readLine()) != null) {
-                        int sepIndex = line.indexOf('=');
-                        if (sepIndex > -1) {
-                            String key = line.substring(0, sepIndex);
-                            String value = line.substring(sepIndex + 1);
-                            fileData.put(key, value);
-                        }
-                    }
-                } catch (IOException e) {
-                    sharedClass.logger.log(Level.SEVERE, e.getMessage(), pluginLogger.RED);
-                }
+    /**
+     * @return The loaded file, loaded again if it has been evicted, or null if it is not loaded
+     */
+    private StoredFile lookup(String fullName) {
+        StoredFile file = files.get(fullName);
+        if (file != null) {
+            hits.increment();
+        } else {
+            misses.increment();
+            if (!evicted.contains(fullName)) {
+                return null;
             }
+            reloads.increment();
+            file = load(fullName, false);
+        }
+        file.use();
+        return file;
+    }
 
-            cache.put(fullName, fileData);
-            if (!global) {
-                privateCache.computeIfAbsent(scriptName, k -> ConcurrentHashMap.newKeySet()).add(fullName);
+    private static long entryBytes(String key, String value) {
+        return ENTRY_OVERHEAD_BYTES + 2L * (key.length() + value.length());
+    }
+
+    /**
+     * Resolves the promise of DiskApi.loadFile in the mailbox of the script once the load is done.
+     */
+    public void whenLoaded(CompletableFuture<Void> loading, String scriptName, Value resolver) {
+        ScriptFunction resolve = ScriptFunction.of(resolver, "f");
+        ScriptMailbox mailbox = ScriptMailbox.of(scriptName);
+        loading.whenComplete((result, error) -> mailbox.post("DiskApi.loadFile", () -> {
+            try {
+                resolve.call();
+            } catch (PolyglotException e) {
+                sharedClass.logger.scriptlog(Level.WARNING, scriptName, e.getMessage(), pluginLogger.RED);
             }
-        };
+        }));
+    }
 
-        if (async) {
-            new Thread(task).start();
-        } else {
-            task.run();
+    private void readFile(String fullName, StoredFile file) {
+        try {
+            Map<String, String> stored = StorageLog.read(SAVE_DIR, fullName);
+            long bytes = 0;
+            for (Map.Entry<String, String> entry : stored.entrySet()) {
+                bytes += entryBytes(entry.getKey(), entry.getValue());
+            }
+            file.data.putAll(stored);
+            synchronized (file) {
+                file.bytes += bytes;
+            }
+            if (cachedBytes.addAndGet(bytes) > maxCachedBytes && maxCachedBytes > 0) {
+                runOnStorage(this::evictIfNeeded);
+            }
+        } catch (IOException e) {
+            sharedClass.logger.log(Level.SEVERE, e.getMessage(), pluginLogger.RED);
+        } finally {
+            file.state = FileState.LOADED;
+            file.loaded.complete(null);
         }
     }
 
     public void saveCaches(String scriptName) {
-        Set<String> files = privateCache.get(scriptName);
-        if (files == null) return;
+        Set<String> scriptFiles = privateCache.get(scriptName);
+        if (scriptFiles == null) return;
 
-        for (String fullName : files) {
+        for (String fullName : scriptFiles) {
             saveFile(fullName, false, "", true);
         }
 
-        files.clear();
+        scriptFiles.clear();
     }
 
     public void saveFile(String fileName, boolean async, String scriptName, boolean global) {
-        Runnable task = () -> {
-            // For script-specific files, convert script path to safe filename (e.g., "utils/test.js" → "utils_test.js")
-            String fullName = (global ? fileName : ScriptPathUtils.toSafeFileName(scriptName) + "_" + fileName).replaceAll("[^a-zA-Z0-9._-]", "_");
-            if (!cache.containsKey(fullName)) return;
-            if (!filesBeingSaved.add(fullName)) return; // Already saving
-
-            File file = new File(SAVE_DIR, fullName + ".dat");
-            try (BufferedWriter writer = new BufferedWriter(new FileWriter(file))) {
-                for (Map.Entry<String, String> entry : cache.get(fullName).entrySet()) {
-                    writer.write(entry.getKey() + "=" + entry.getValue());
-                    writer.newLine();
+        String fullName = getFullName(fileName, scriptName, global);
+        StoredFile file = files.get(fullName);
+        if (file == null) {
+            // Saving an evicted file means the script is done with it
+            evicted.remove(fullName);
+            return;
+        }
+
+        if (async && flushTask != null && !flushTask.isDone()) {
+            // The next flush saves and unloads the file, saving it again before that changes nothing
+            if (file.unloadRequested) {
+                mergedSaves.increment();
+            }
+            file.unloadRequested = true;
+            return;
+        }
+        file.loaded.join();
+        file.unloadRequested = true;
+        if (writeFile(fullName, file)) {
+            syncFiles(List.of(fullName));
+        }
+    }
+
+    private void flushDirty() {
+        long start = System.nanoTime();
+        List<String> written = new ArrayList<>();
+        boolean any = false;
+        for (Map.Entry<String, StoredFile> entry : files.entrySet()) {
+            StoredFile file = entry.getValue();
+            // Halving the uses lets the files that were used a lot long ago become candidates for eviction
+            file.uses.updateAndGet(uses -> uses >> 1);
+            if (!file.unloadRequested && !file.hasChanges()) {
+                continue;
+            }
+            any = true;
+            if (writeFile(entry.getKey(), file)) {
+                written.add(entry.getKey());
+            }
+        }
+        syncFiles(written);
+        if (any) {
+            lastBatchNanos = System.nanoTime() - start;
+        }
+        evictIfNeeded();
+    }
+
+    // Runs on the storage thread
+    private void evictIfNeeded() {
+        long limit = maxCachedBytes;
+        if (limit <= 0 || cachedBytes.get() <= limit) {
+            return;
+        }
+
+        long idleSince = System.nanoTime() - MIN_IDLE_NANOS;
+        List<EvictionCandidate> candidates = new ArrayList<>();
+        for (Map.Entry<String, StoredFile> entry : files.entrySet()) {
+            StoredFile file = entry.getValue();
+            // A file that waits for its save is unloaded by the next flush anyway
+            if (file.state != FileState.LOADING && !file.unloadRequested && file.lastUse - idleSince < 0) {
+                candidates.add(new EvictionCandidate(entry.getKey(), file));
+            }
+        }
+        candidates.sort(Comparator.comparingInt((EvictionCandidate candidate) -> candidate.uses)
+                .thenComparingLong(candidate -> candidate.lastUse));
+
+        List<String> written = new ArrayList<>();
+        for (EvictionCandidate candidate : candidates) {
+            if (cachedBytes.get() <= limit) {
+                break;
+            }
+            // Marked before the unload, so a use right after it already loads the file again
+            evicted.add(candidate.fullName);
+            candidate.file.unloadRequested = true;
+            if (writeFile(candidate.fullName, candidate.file)) {
+                written.add(candidate.fullName);
+            }
+            boolean unloaded;
+            synchronized (candidate.file) {
+                unloaded = candidate.file.unloaded;
+                if (!unloaded) {
+                    // Changed again or not written, it stays loaded, otherwise the next flush would unload it
+                    // without marking it as evicted and its next use would not load it again
+                    candidate.file.unloadRequested = false;
+                }
+            }
+            if (unloaded) {
+                evictions.increment();
+            } else {
+                evicted.remove(candidate.fullName);
+            }
+        }
+        syncFiles(written);
+    }
+
+    /**
+     * Appends the changed keys of the file to its log, the file is unloaded afterwards if that has been requested.
+     *
+     * @return True if something has been appended
+     */
+    private boolean writeFile(String fullName, StoredFile file) {
+        // Holding the lock of the file from reading the values until they are appended keeps the log in order
+        synchronized (StorageLog.lock(fullName)) {
+            Map<String, String> changes = new HashMap<>();
+            long since;
+            synchronized (file) {
+                // A file that is still loading is saved by a later flush
+                if (file.unloaded || file.state == FileState.LOADING) {
+                    return false;
+                }
+                file.state = FileState.SAVING;
+                for (String key : file.dirtyKeys) {
+                    // A key without a value has been removed
+                    changes.put(key, file.data.get(key));
+                }
+                file.dirtyKeys = new HashSet<>();
+                since = file.dirtySince;
+            }
+
+            boolean written = false;
+            try {
+                if (!changes.isEmpty()) {
+                    if (StorageLog.append(SAVE_DIR, fullName, changes)) {
+                        compactLater(fullName);
+                    }
+                    written = true;
+                    flushes.increment();
+                    writtenKeys.add(changes.size());
+                    long latency = System.nanoTime() - since;
+                    lastFlushLatency = latency;
+                    if (latency > maxFlushLatency) {
+                        maxFlushLatency = latency;
+                    }
                 }
             } catch (IOException e) {
                 sharedClass.logger.log(Level.SEVERE, e.getMessage(), pluginLogger.RED);
+                // Kept in memory, the next flush tries again
+                synchronized (file) {
+                    file.dirtyKeys.addAll(changes.keySet());
+                }
             } finally {
-                filesBeingSaved.remove(fullName);
-                cache.remove(fullName);
+                synchronized (file) {
+                    file.state = FileState.LOADED;
+                    if (file.unloadRequested && file.dirtyKeys.isEmpty()) {
+                        file.unloaded = true;
+                        files.remove(fullName, file);
+                        cachedBytes.addAndGet(-file.bytes);
+                    }
+                }
             }
-        };
+            return written;
+        }
+    }
 
-        if (async) {
-            new Thread(task).start();
-        } else {
-            task.run();
+    private void syncFiles(List<String> fullNames) {
+        if (!fsync || fullNames.isEmpty()) {
+            return;
+        }
+        long start = System.nanoTime();
+        try {
+            StorageLog.sync(SAVE_DIR, fullNames);
+            syncedFiles.add(fullNames.size());
+            syncWindows.increment();
+        } catch (IOException e) {
+            sharedClass.logger.log(Level.SEVERE, "Could not sync the save files: " + e.getMessage(), pluginLogger.RED);
+        }
+        lastSyncNanos = System.nanoTime() - start;
+    }
+
+    private void compactLater(String fullName) {
+        try {
+            ScriptExecutors.storage().execute(() -> {
+                try {
+                    StorageLog.compact(SAVE_DIR, fullName);
+                } catch (IOException e) {
+                    sharedClass.logger.log(Level.WARNING, "Could not compact " + fullName + ": " + e.getMessage(), pluginLogger.ORANGE);
+                }
+            });
+        } catch (RejectedExecutionException ignored) {
+            // Shutting down, the next save that grows the log tries again
         }
     }
 
     public String getValue(String scriptName, boolean global, String fileName, String valueName, String fallbackValue) {
-        // For script-specific files, convert script path to safe filename (e.g., "utils/test.js" → "utils_test.js")
-        String fullName = (global ? fileName : ScriptPathUtils.toSafeFileName(scriptName) + "_" + fileName).replaceAll("[^a-zA-Z0-9._-]", "_");
-        Map<String, String> fileCache = cache.get(fullName);
-        return fileCache.getOrDefault(valueName, fallbackValue);
+        String fullName = getFullName(fileName, scriptName, global);
+        StoredFile file = lookup(fullName);
+        if (file == null) {
+            return fallbackValue;
+        }
+        // Waits for a load that has not finished yet
+        file.loaded.join();
+        return file.data.getOrDefault(valueName, fallbackValue);
     }
 
     public void setValue(String scriptName, boolean global, String fileName, String valueName, String value) {
-        // For script-specific files, convert script path to safe filename (e.g., "utils/test.js" → "utils_test.js")
-        String fullName = (global ? fileName : ScriptPathUtils.toSafeFileName(scriptName) + "_" + fileName).replaceAll("[^a-zA-Z0-9._-]", "_");
-        if ("null".equals(value)) {
-            Map<String, String> map = cache.get(fullName);
-            if (map != null) {
-                map.remove(valueName);
+        String fullName = getFullName(fileName, scriptName, global);
+        while (true) {
+            StoredFile file = lookup(fullName);
+            if (file == null) {
+                // Read from the disk first, an empty file would hide the stored keys from every later getVar
+                // and loadFile, the change is applied on top once the load is done
+                file = load(fullName, false);
+            }
+            file.loaded.join();
+            synchronized (file) {
+                // Unloaded in the meantime, the next round uses the file that replaces it
+                if (file.unloaded) {
+                    continue;
+                }
+                String previous;
+                long bytes = 0;
+                if ("null".equals(value)) {
+                    previous = file.data.remove(valueName);
+                } else {
+                    previous = file.data.put(valueName, value);
+                    bytes += entryBytes(valueName, value);
+                }
+                if (previous != null) {
+                    bytes -= entryBytes(valueName, previous);
+                }
+                file.bytes += bytes;
+                cachedBytes.addAndGet(bytes);
+                if (file.dirtyKeys.isEmpty()) {
+                    file.dirtySince = System.nanoTime();
+                }
+                file.dirtyKeys.add(valueName);
+                return;
             }
-        } else {
-            cache.computeIfAbsent(fullName, k -> new ConcurrentHashMap<>()).put(valueName, value);
         }
     }
-}
\ No newline at end of file
+}
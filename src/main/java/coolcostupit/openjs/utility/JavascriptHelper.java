@@ -8,6 +8,7 @@ package coolcostupit.openjs.utility;
 
 import coolcostupit.openjs.logging.pluginLogger;
 import coolcostupit.openjs.modules.sharedClass;
+import org.graalvm.polyglot.Source;
 
 public class JavascriptHelper {
     private static final String MAIN_JAVASCRIPT_CODE = String.format("""
@@ -111,7 +112,8 @@ public class JavascriptHelper {
                 };
                 const DiskApi = Object.freeze({
                   loadFile(fileName, async, global) {
-                    DiskStorage.loadFile(fileName, async, currentScriptName, global);
+                    const loading = DiskStorage.loadFile(fileName, async, currentScriptName, global);
+                    return new Promise(resolve => DiskStorage.whenLoaded(loading, currentScriptName, { f: resolve }));
                   },
                   saveFile(fileName, async, global) {
                     DiskStorage.saveFile(fileName, async, currentScriptName, global);
@@ -154,11 +156,72 @@ public class JavascriptHelper {
                   entitySchedule(entity, func) {
                     return _task.entitySchedule(currentScriptName, scriptEngine, entity, { f: func });
                   },
+                  region(location, func) {
+                    return _task.region(currentScriptName, scriptEngine, location, { f: func });
+                  },
+                  regionDelay(location, delay, func) {
+                    return _task.regionDelay(currentScriptName, scriptEngine, location, parseFloat(delay), { f: func });
+                  },
+                  regionRepeat(location, delay, period, func) {
+                    return _task.regionRepeat(currentScriptName, scriptEngine, location, parseFloat(delay), parseFloat(period), { f: func });
+                  },
+                  regionBatch(locations, func) {
+                    return Array.from(_task.regionBatch(currentScriptName, scriptEngine, locations, { f: func }));
+                  },
                   delay(delay, func) {
                     return _task.delay(currentScriptName, scriptEngine, parseFloat(delay), { f: func });
                   },
-                  repeat(delay, period, func) {
-                    return _task.repeat(currentScriptName, scriptEngine, parseFloat(delay), parseFloat(period), { f: func });
+                  repeat(delay, period, func, options) {
+                    const exact = !!(options && options.exact);
+                    return _task.repeat(currentScriptName, scriptEngine, parseFloat(delay), parseFloat(period), { f: func }, exact);
+                  },
+                  iterate(generator, msPerTick, options) {
+                    const iterator = typeof generator === "function" ? generator() : generator;
+                    return _task.iterate(currentScriptName, scriptEngine, iterator, parseFloat(msPerTick), options);
+                  },
+                  group(name) {
+                    const handle = _task.createGroup(currentScriptName, name === undefined ? "" : String(name));
+                    const within = start => _task.inGroup(currentScriptName, handle, { f: start });
+                    return Object.freeze({
+                      run(func) { return within(func); },
+                      spawn(func) { return within(() => task.spawn(func)); },
+                      main(func) { return within(() => task.main(func)); },
+                      entitySchedule(entity, func) { return within(() => task.entitySchedule(entity, func)); },
+                      region(location, func) { return within(() => task.region(location, func)); },
+                      regionDelay(location, delay, func) { return within(() => task.regionDelay(location, delay, func)); },
+                      regionRepeat(location, delay, period, func) { return within(() => task.regionRepeat(location, delay, period, func)); },
+                      regionBatch(locations, func) { return within(() => task.regionBatch(locations, func)); },
+                      delay(delay, func) { return within(() => task.delay(delay, func)); },
+                      repeat(delay, period, func, options) { return within(() => task.repeat(delay, period, func, options)); },
+                      iterate(generator, msPerTick, options) { return within(() => task.iterate(generator, msPerTick, options)); },
+                      cancel() { return _task.cancelGroup(currentScriptName, handle); },
+                      join() { return new Promise(resolve => _task.joinGroup(currentScriptName, handle, { f: resolve })); },
+                      get size() { return handle.size(); }
+                    });
+                  },
+                  sleep(seconds) {
+                    return new Promise((resolve, reject) => _task.sleep(currentScriptName, parseFloat(seconds), {
+                      f: resolve,
+                      r: reason => reject(new Error("task.sleep: " + reason))
+                    }));
+                  },
+                  nextTick() {
+                    return new Promise((resolve, reject) => _task.nextTick(currentScriptName, {
+                      f: resolve,
+                      r: reason => reject(new Error("task.nextTick: " + reason))
+                    }));
+                  },
+                  onMain() {
+                    return new Promise((resolve, reject) => _task.onMain(currentScriptName, {
+                      f: resolve,
+                      r: reason => reject(new Error("task.onMain: " + reason))
+                    }));
+                  },
+                  onEntity(entity) {
+                    return new Promise((resolve, reject) => _task.onEntity(currentScriptName, entity, {
+                      f: resolve,
+                      r: reason => reject(new Error("task.onEntity: " + reason))
+                    }));
                   },
                   createListener(javaInterface, handlerObj, gcSet) {
                     let isActive = true;
@@ -194,14 +257,41 @@ public class JavascriptHelper {
                 });
                 """, pluginLogger.yieldKill);
 
+    // In-build host objects are protected by read-only facades on the Java side (see ReadOnlyBinding),
+    // only the plain values need to be locked here
+    public static final Source PROTECTION_SOURCE = buildSource("openjs-protection.js", """
+                Object.defineProperty(this, 'currentScriptName', {
+                  value: currentScriptName,
+                  writable: false,
+                  configurable: false,
+                  enumerable: true
+                });
+                
+                Object.defineProperty(this, 'IsFoliaServer', {
+                  value: IsFoliaServer,
+                  writable: false,
+                  configurable: false,
+                  enumerable: true
+                });
+                """);
+
     public static String JAVASCRIPT_CODE = MAIN_JAVASCRIPT_CODE;
+    // The helpers are the same for every script, evaluating one named and cached source lets all
+    // contexts of the shared engine re-use the parsed and compiled prelude
+    public static Source JAVASCRIPT_SOURCE = buildSource("openjs-helper.js", JAVASCRIPT_CODE);
+
+    private static Source buildSource(String name, String code) {
+        return Source.newBuilder("js", code, name)
+                .cached(true)
+                .buildLiteral();
+    }
 
     public static void updateSource() {
         JAVASCRIPT_CODE = MAIN_JAVASCRIPT_CODE +
                 (sharedClass.configUtil.getConfigFromBuffer("LoadCustomEventsHandler", true)
                         ?
                         """
-                            const registerEvent = function(eventClass, handler) {
+                            const registerEvent = function(eventClass, handler, options) {
                                var wrappedHandler;
                                if (typeof handler === 'function') {
                                    wrappedHandler = { handleEvent: handler };
@@ -210,7 +300,7 @@ public class JavascriptHelper {
                                } else {
                                    log.error('Invalid handler: must be a function or an object with a handleEvent method.');
                                }
-                               return scriptManager.registerEvent(eventClass, wrappedHandler, currentScriptName, scriptEngine);
+                               return scriptManager.registerEvent(eventClass, wrappedHandler, currentScriptName, scriptEngine, options || null);
                             };
                             const unregisterEvent = function(Listener) {
                                 scriptManager.unregisterListener(Listener, currentScriptName)
@@ -223,5 +313,9 @@ public class JavascriptHelper {
                             "scriptManager.registerSchedule(currentScriptName, delay, period, handler, scriptEngine, method);" +
                         "}"
                         : "");
+
+        if (!JAVASCRIPT_SOURCE.getCharacters().toString().equals(JAVASCRIPT_CODE)) {
+            JAVASCRIPT_SOURCE = buildSource("openjs-helper.js", JAVASCRIPT_CODE);
+        }
     }
 }
\ No newline at end of file
@@ -0,0 +1,198 @@
+/*
+ * Copyright (c) 2025 coolcostupit
+ * Licensed under AGPL-3.0
+ * You may not remove this notice or claim this work as your own.
+ */
+
+package coolcostupit.openjs.utility;
+
+import java.io.*;
+import java.nio.channels.FileChannel;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * The files behind a {@link DiskStorage} save file.
+ * <ul>
+ *     <li>name.dat: a snapshot with one "key=value" line per entry, the format DiskStorage has always used</li>
+ *     <li>name.log: the changes since the snapshot, one "+key=value" or "-key" line per change</li>
+ * </ul>
+ * Saving only appends the changed keys to the log, so it costs as much as the changes and not as the whole file.
+ * Once the log is bigger than the snapshot, {@link #compact} merges both into a new snapshot.
+ * The snapshot is never written in place, a crash leaves either the old or the new one.
+ * All methods of a file are serialized by a lock per file.
+ */
+final class StorageLog {
+    // Logs below this size are never worth a compaction
+    private static final long MIN_COMPACT_BYTES = 64 * 1024;
+    private static final Map<String, Object> locks = new ConcurrentHashMap<>();
+
+    private StorageLog() {
+    }
+
+    static Object lock(String fullName) {
+        return locks.computeIfAbsent(fullName, k -> new Object());
+    }
+
+    private static File snapshotFile(File dir, String fullName) {
+        return new File(dir, fullName + ".dat");
+    }
+
+    private static File logFile(File dir, String fullName) {
+        return new File(dir, fullName + ".log");
+    }
+
+    /**
+     * Reads the snapshot and replays the log on top of it.
+     */
+    static Map<String, String> read(File dir, String fullName) throws IOException {
+        synchronized (lock(fullName)) {
+            Map<String, String> data = new HashMap<>();
+            File snapshot = snapshotFile(dir, fullName);
+            if (snapshot.exists()) {
+                try (BufferedReader reader = new BufferedReader(new FileReader(snapshot))) {
+                    String line;
+                    while ((line = reader.readLine()) != null) {
+                        int sepIndex = line.indexOf('=');
+                        if (sepIndex > -1) {
+                            data.put(line.substring(0, sepIndex), line.substring(sepIndex + 1));
+                        }
+                    }
+                }
+            }
+
+            File log = logFile(dir, fullName);
+            if (log.exists()) {
+                cutTornTail(log);
+                try (BufferedReader reader = new BufferedReader(new FileReader(log))) {
+                    String line;
+                    while ((line = reader.readLine()) != null) {
+                        if (line.startsWith("-")) {
+                            data.remove(line.substring(1));
+                            continue;
+                        }
+                        int sepIndex = line.indexOf('=');
+                        if (line.startsWith("+") && sepIndex > 0) {
+                            data.put(line.substring(1, sepIndex), line.substring(sepIndex + 1));
+                        }
+                    }
+                }
+            }
+            return data;
+        }
+    }
+
+    /**
+     * Appends changes to the log.
+     *
+     * @param changes The changed keys, a null value removes the key
+     * @return True if the log has grown big enough for a compaction
+     */
+    static boolean append(File dir, String fullName, Map<String, String> changes) throws IOException {
+        synchronized (lock(fullName)) {
+            File log = logFile(dir, fullName);
+            if (log.exists()) {
+                cutTornTail(log);
+            }
+            try (Writer writer = new BufferedWriter(new FileWriter(log, true))) {
+                for (Map.Entry<String, String> change : changes.entrySet()) {
+                    if (change.getValue() == null) {
+                        writer.write("-" + change.getKey());
+                    } else {
+                        writer.write("+" + change.getKey() + "=" + change.getValue());
+                    }
+                    writer.write('\n');
+                }
+            }
+            return needsCompaction(dir, fullName);
+        }
+    }
+
+    // An interrupted append can leave a line without its end, it is cut off before the log is read or appended to
+    private static void cutTornTail(File log) throws IOException {
+        try (RandomAccessFile file = new RandomAccessFile(log, "rw")) {
+            long end = file.length();
+            long validEnd = end;
+            while (validEnd > 0) {
+                file.seek(validEnd - 1);
+                if (file.read() == '\n') {
+                    break;
+                }
+                validEnd--;
+            }
+            if (validEnd < end) {
+                file.setLength(validEnd);
+            }
+        }
+    }
+
+    /**
+     * Forces the logs of the files to the disk. Called once for all files of a flush,
+     * so the appends of the batch share one sync instead of paying for one each.
+     */
+    static void sync(File dir, Collection<String> fullNames) throws IOException {
+        for (String fullName : fullNames) {
+            synchronized (lock(fullName)) {
+                File log = logFile(dir, fullName);
+                if (log.exists()) {
+                    try (FileChannel channel = FileChannel.open(log.toPath(), StandardOpenOption.WRITE)) {
+                        channel.force(true);
+                    }
+                }
+            }
+        }
+        syncDirectory(dir);
+    }
+
+    // New and renamed files only survive a crash once their directory entry does, not every platform can sync a directory
+    private static void syncDirectory(File dir) {
+        try (FileChannel channel = FileChannel.open(dir.toPath(), StandardOpenOption.READ)) {
+            channel.force(true);
+        } catch (IOException ignored) {
+        }
+    }
+
+    static boolean needsCompaction(File dir, String fullName) {
+        long logSize = logFile(dir, fullName).length();
+        return logSize > MIN_COMPACT_BYTES && logSize > snapshotFile(dir, fullName).length();
+    }
+
+    /**
+     * Writes the merged data as the new snapshot and removes the log.
+     */
+    static void compact(File dir, String fullName) throws IOException {
+        synchronized (lock(fullName)) {
+            File log = logFile(dir, fullName);
+            if (!log.exists()) {
+                return;
+            }
+            Map<String, String> data = read(dir, fullName);
+            File snapshot = snapshotFile(dir, fullName);
+            File temp = new File(dir, fullName + ".dat.tmp");
+            try (FileOutputStream out = new FileOutputStream(temp);
+                 Writer writer = new BufferedWriter(new OutputStreamWriter(out))) {
+                for (Map.Entry<String, String> entry : data.entrySet()) {
+                    writer.write(entry.getKey() + "=" + entry.getValue());
+                    writer.write('\n');
+                }
+                writer.flush();
+                // The log is deleted below, so the new snapshot has to be on the disk before it replaces the old one
+                out.getFD().sync();
+            }
+            try {
+                Files.move(temp.toPath(), snapshot.toPath(), StandardCopyOption.ATOMIC_MOVE);
+            } catch (AtomicMoveNotSupportedException e) {
+                Files.move(temp.toPath(), snapshot.toPath(), StandardCopyOption.REPLACE_EXISTING);
+            }
+            syncDirectory(dir);
+            // Replaying the log again after a crash here is harmless, it only holds absolute values
+            Files.delete(log.toPath());
+        }
+    }
+}
@@ -0,0 +1,132 @@
+/*
+ * Copyright (c) 2025 coolcostupit
+ * Licensed under AGPL-3.0
+ * You may not remove this notice or claim this work as your own.
+ */
+
+package coolcostupit.openjs.utility;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+import java.util.HashMap;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class StorageLogTest {
+    private static final String NAME = "test.js";
+
+    @TempDir
+    File dir;
+
+    private File snapshot() {
+        return new File(dir, NAME + ".dat");
+    }
+
+    private File log() {
+        return new File(dir, NAME + ".log");
+    }
+
+    private void write(File file, String content) throws IOException {
+        Files.write(file.toPath(), content.getBytes(StandardCharsets.UTF_8));
+    }
+
+    private static Map<String, String> changes(String... keysAndValues) {
+        Map<String, String> changes = new HashMap<>();
+        for (int i = 0; i < keysAndValues.length; i += 2) {
+            changes.put(keysAndValues[i], keysAndValues[i + 1]);
+        }
+        return changes;
+    }
+
+    @Test
+    void replaysTheLogOverTheSnapshot() throws IOException {
+        write(snapshot(), "a=1\nb=2\n");
+        StorageLog.append(dir, NAME, changes("b", "3", "c", "4"));
+        StorageLog.append(dir, NAME, changes("c", "5"));
+
+        assertEquals(Map.of("a", "1", "b", "3", "c", "5"), StorageLog.read(dir, NAME));
+    }
+
+    @Test
+    void readsALogWithoutSnapshot() throws IOException {
+        StorageLog.append(dir, NAME, changes("a", "x=y"));
+
+        // Only the first "=" separates the key from the value
+        assertEquals(Map.of("a", "x=y"), StorageLog.read(dir, NAME));
+    }
+
+    @Test
+    void removesKeys() throws IOException {
+        write(snapshot(), "a=1\nb=2\n");
+        StorageLog.append(dir, NAME, changes("a", null, "c", "3"));
+        StorageLog.append(dir, NAME, changes("c", null));
+
+        assertEquals(Map.of("b", "2"), StorageLog.read(dir, NAME));
+    }
+
+    @Test
+    void cutsATornTail() throws IOException {
+        StorageLog.append(dir, NAME, changes("a", "1"));
+        // An append that was interrupted in the middle of its line
+        Files.write(log().toPath(), "+b=unfinish".getBytes(StandardCharsets.UTF_8), StandardOpenOption.APPEND);
+
+        assertEquals(Map.of("a", "1"), StorageLog.read(dir, NAME));
+        assertEquals("+a=1\n", Files.readString(log().toPath()));
+
+        // The next append starts on a line of its own
+        Files.write(log().toPath(), "+b=unfinish".getBytes(StandardCharsets.UTF_8), StandardOpenOption.APPEND);
+        StorageLog.append(dir, NAME, changes("b", "2"));
+        assertEquals(Map.of("a", "1", "b", "2"), StorageLog.read(dir, NAME));
+    }
+
+    @Test
+    void compactsIntoTheSnapshot() throws IOException {
+        write(snapshot(), "a=1\nb=2\n");
+        StorageLog.append(dir, NAME, changes("a", null, "b", "3"));
+
+        StorageLog.compact(dir, NAME);
+
+        assertFalse(log().exists());
+        assertFalse(new File(dir, NAME + ".dat.tmp").exists());
+        assertEquals(Map.of("b", "3"), StorageLog.read(dir, NAME));
+    }
+
+    @Test
+    void survivesACrashBetweenTheSnapshotMoveAndTheLogDelete() throws IOException {
+        write(snapshot(), "a=1\nb=2\n");
+        StorageLog.append(dir, NAME, changes("a", null, "b", "3", "c", "4"));
+        StorageLog.append(dir, NAME, changes("c", "5"));
+        Map<String, String> expected = StorageLog.read(dir, NAME);
+        String log = Files.readString(log().toPath());
+
+        // The compaction replaced the snapshot, the crash came before the log was deleted
+        StorageLog.compact(dir, NAME);
+        write(log(), log);
+        assertTrue(log().exists());
+
+        assertEquals(expected, StorageLog.read(dir, NAME));
+        StorageLog.compact(dir, NAME);
+        assertEquals(expected, StorageLog.read(dir, NAME));
+    }
+
+    @Test
+    void needsCompactionOnlyOnceTheLogIsBigAndBiggerThanTheSnapshot() throws IOException {
+        write(snapshot(), "a=1\n");
+        assertFalse(StorageLog.append(dir, NAME, changes("a", "2")));
+
+        String big = "x".repeat(70 * 1024);
+        assertTrue(StorageLog.append(dir, NAME, changes("a", big)));
+
+        write(snapshot(), "a=" + big + big + "\n");
+        assertFalse(StorageLog.needsCompaction(dir, NAME));
+    }
+}